@@ -0,0 +1,73 @@
+package uk.anbu.samples.filewatcher;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects the changed files for a window starting at the first change and hands them over as one batch, the
+ * latest change of each file only. Batches are handed over one at a time on the batcher's thread, changes coming
+ * in while one is being handled go into the next batch.
+ */
+@Slf4j
+public class ChangeBatcher implements AutoCloseable {
+    private final Duration window;
+    private final Consumer<List<FileChange>> onBatch;
+    private final Map<Path, FileChange> pendingChanges = new LinkedHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChangeBatcher(Duration window, Consumer<List<FileChange>> onBatch) {
+        this.window = window;
+        this.onBatch = onBatch;
+    }
+
+    public void record(FileChange change) {
+        synchronized (pendingChanges) {
+            if (timer.isShutdown()) {
+                return;
+            }
+            if (pendingChanges.isEmpty()) {
+                timer.schedule(this::flush, window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            pendingChanges.remove(change.path());
+            pendingChanges.put(change.path(), change);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (pendingChanges) {
+            timer.shutdownNow();
+            pendingChanges.clear();
+        }
+    }
+
+    private void flush() {
+        List<FileChange> batch;
+        synchronized (pendingChanges) {
+            batch = new ArrayList<>(pendingChanges.values());
+            pendingChanges.clear();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            onBatch.accept(batch);
+        } catch (Exception ex) {
+            log.error("Error handling a batch of {} changes", batch.size(), ex);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package uk.anbu.samples.filewatcher;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges the events of each path until the path has been quiet for the quiet period, then reports its net
+ * change once. Whether the file existed before the first event and after the last one decides the change: a
+ * file created and then modified was created, one deleted and created again was modified, and one created and
+ * deleted again within the quiet period is not reported at all.
+ */
+@Slf4j
+public class ChangeCoalescer implements AutoCloseable {
+    private final long quietPeriodNanos;
+    private final Consumer<FileChange> onChange;
+    private final Map<Path, PendingChange> pendingChanges = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChangeCoalescer(Duration quietPeriod, Consumer<FileChange> onChange) {
+        this.quietPeriodNanos = quietPeriod.toNanos();
+        this.onChange = onChange;
+    }
+
+    public void record(Path path, WatchEvent.Kind<?> kind) {
+        long deadline = System.nanoTime() + quietPeriodNanos;
+        synchronized (pendingChanges) {
+            PendingChange pending = pendingChanges.get(path);
+            if (pending == null) {
+                pendingChanges.put(path, new PendingChange(kind != StandardWatchEventKinds.ENTRY_CREATE, kind, deadline));
+                schedule(path, quietPeriodNanos);
+            } else {
+                pending.lastKind = kind;
+                pending.deadline = deadline;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        synchronized (pendingChanges) {
+            pendingChanges.clear();
+        }
+    }
+
+    private void schedule(Path path, long delayNanos) {
+        timer.schedule(() -> fireIfQuiet(path), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reports the change once the path has been quiet for the whole period, otherwise looks again when the
+     * period since its last event is up.
+     */
+    private void fireIfQuiet(Path path) {
+        PendingChange pending;
+        synchronized (pendingChanges) {
+            pending = pendingChanges.get(path);
+            if (pending == null) {
+                return;
+            }
+            long remaining = pending.deadline - System.nanoTime();
+            if (remaining > 0) {
+                schedule(path, remaining);
+                return;
+            }
+            pendingChanges.remove(path);
+        }
+
+        boolean existsNow = pending.lastKind != StandardWatchEventKinds.ENTRY_DELETE;
+        if (!pending.existedBefore && !existsNow) {
+            log.debug("File {} was created and deleted again within the quiet period", path);
+            return;
+        }
+        WatchEvent.Kind<?> kind = !pending.existedBefore ? StandardWatchEventKinds.ENTRY_CREATE
+                : existsNow ? StandardWatchEventKinds.ENTRY_MODIFY
+                : StandardWatchEventKinds.ENTRY_DELETE;
+        try {
+            onChange.accept(new FileChange(path, kind));
+        } catch (Exception ex) {
+            log.error("Error handling change of {}", path, ex);
+        }
+    }
+
+    private static class PendingChange {
+        private final boolean existedBefore;
+        private WatchEvent.Kind<?> lastKind;
+        private long deadline;
+
+        private PendingChange(boolean existedBefore, WatchEvent.Kind<?> lastKind, long deadline) {
+            this.existedBefore = existedBefore;
+            this.lastKind = lastKind;
+            this.deadline = deadline;
+        }
+    }
+}
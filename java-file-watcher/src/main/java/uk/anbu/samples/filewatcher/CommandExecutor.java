@@ -0,0 +1,268 @@
+package uk.anbu.samples.filewatcher;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the command for changed files on a bounded pool, so a slow command does not hold up the watcher.
+ * Commands for different files run in parallel up to {@code maxParallelCommands}, commands for the same file
+ * one after the other. While a file's command is running, only its latest change is kept, a newer change
+ * supersedes the one waiting. A command still running after the timeout is killed with all its child
+ * processes.
+ * <p>
+ * A batch of changes runs the command once for all of its files, with their paths in {@code ${files}}, in a
+ * manifest file named by {@code ${files_file}} and on the command's standard input, one per line. A batch whose
+ * {@code ${files}} would make the command longer than the platform allows is split, and the parts run in
+ * parallel.
+ */
+@Slf4j
+public class CommandExecutor implements AutoCloseable {
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+    /** cmd.exe takes at most 8191 characters, Linux at most 128 KiB in the single argument to bash -c. */
+    private static final int MAX_COMMAND_LENGTH = WINDOWS ? 8191 : 128 * 1024 - 1;
+
+    private final String command;
+    private final String workingDirectory;
+    private final Duration timeout;
+    private final ExecutorService executor;
+    /** Files with a command running, mapped to the change waiting to run after it, or {@code null}. */
+    private final Map<Path, FileChange> busyFiles = new HashMap<>();
+    private boolean closed;
+
+    public CommandExecutor(String command, String workingDirectory, int maxParallelCommands, Duration timeout) {
+        this.command = command;
+        this.workingDirectory = workingDirectory;
+        this.timeout = timeout;
+        var threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxParallelCommands), runnable -> {
+            Thread thread = new Thread(runnable, "command-runner-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void submit(FileChange change) {
+        synchronized (busyFiles) {
+            if (closed) {
+                return;
+            }
+            if (busyFiles.containsKey(change.path())) {
+                FileChange superseded = busyFiles.put(change.path(), change);
+                if (superseded != null) {
+                    log.info("Change of kind {} to file {} superseded by a newer change", superseded.kind(),
+                            superseded.path());
+                }
+                return;
+            }
+            busyFiles.put(change.path(), null);
+            executor.execute(() -> runAndContinue(change));
+        }
+    }
+
+    /**
+     * Runs the command for a batch of changes and waits for it, so the next batch can collect the changes that
+     * come in meanwhile.
+     */
+    public void runBatch(List<FileChange> batch) {
+        List<Callable<Void>> parts = new ArrayList<>();
+        for (List<Path> files : split(batch.stream().map(FileChange::path).toList())) {
+            parts.add(() -> {
+                runBatchCommand(files);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> part : executor.invokeAll(parts)) {
+                part.get();
+            }
+        } catch (ExecutionException ex) {
+            log.error("Error triggering command", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the waiting changes and kills the commands still running.
+     */
+    @Override
+    public void close() {
+        synchronized (busyFiles) {
+            closed = true;
+            busyFiles.clear();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the command for the change, then queues the change that came in for the same file meanwhile, if any,
+     * behind the other files' commands.
+     */
+    private void runAndContinue(FileChange change) {
+        try {
+            runCommand(change);
+        } finally {
+            synchronized (busyFiles) {
+                FileChange next = busyFiles.get(change.path());
+                if (next == null) {
+                    busyFiles.remove(change.path());
+                } else {
+                    busyFiles.put(change.path(), null);
+                    executor.execute(() -> runAndContinue(next));
+                }
+            }
+        }
+    }
+
+    private void runCommand(FileChange change) {
+        Path eventPath = change.path();
+        log.info("Change of kind {} to file {}. Triggering command.", change.kind(), eventPath);
+        String command = this.command.replace("${file}", eventPath.getFileName().toString())
+                .replace("${file_dir}", eventPath.getParent().toString())
+                .replace("${file_with_dir}", eventPath.toString());
+        execute(command, "file " + eventPath, null);
+    }
+
+    private void runBatchCommand(List<Path> files) {
+        log.info("{} files changed. Triggering command.", files.size());
+        Path manifest = null;
+        try {
+            manifest = Files.createTempFile("watcher-files", ".txt");
+            Files.write(manifest, files.stream().map(Path::toString).toList());
+            String command = this.command.replace("${files_file}", quote(manifest.toString()))
+                    .replace("${files}", quoteAll(files));
+            execute(command, files.size() + " files", manifest.toFile());
+        } catch (IOException ex) {
+            log.error("Error writing the list of changed files", ex);
+        } finally {
+            if (manifest != null) {
+                try {
+                    Files.deleteIfExists(manifest);
+                } catch (IOException ex) {
+                    log.warn("Error deleting {}", manifest, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the files so the command with {@code ${files}} replaced fits the platform's limit. A command without
+     * the placeholder runs once for all of them.
+     */
+    private List<List<Path>> split(List<Path> files) {
+        int placeholders = (this.command.length() - this.command.replace("${files}", "").length())
+                / "${files}".length();
+        if (placeholders == 0) {
+            return List.of(files);
+        }
+        // the manifest path is short, leave room for it rather than creating the file first
+        int available = MAX_COMMAND_LENGTH - this.command.length() - 256;
+        List<List<Path>> parts = new ArrayList<>();
+        List<Path> part = new ArrayList<>();
+        int length = 0;
+        for (Path file : files) {
+            int fileLength = (quote(file.toString()).length() + 1) * placeholders;
+            if (!part.isEmpty() && length + fileLength > available) {
+                parts.add(part);
+                part = new ArrayList<>();
+                length = 0;
+            }
+            part.add(file);
+            length += fileLength;
+        }
+        if (!part.isEmpty()) {
+            parts.add(part);
+        }
+        if (parts.size() > 1) {
+            log.info("Split {} changed files into {} commands", files.size(), parts.size());
+        }
+        return parts;
+    }
+
+    private static String quoteAll(List<Path> files) {
+        return String.join(" ", files.stream().map(file -> quote(file.toString())).toList());
+    }
+
+    private static String quote(String argument) {
+        return WINDOWS ? "\"" + argument + "\"" : "'" + argument.replace("'", "'\\''") + "'";
+    }
+
+    private void execute(String command, String target, File input) {
+        Process process = null;
+        try {
+            log.info("Running command: " + command);
+            log.info("Working directory: {}", workingDirectory);
+
+            List<String> commandList = new ArrayList<>();
+            if (WINDOWS) {
+                // Windows
+                commandList.add("cmd");
+                commandList.add("/c");
+            } else {
+                // Linux, macOS, and other Unix-like systems
+                commandList.add("bash");
+                commandList.add("-c");
+            }
+
+            commandList.add(command);
+
+            ProcessBuilder processBuilder = new ProcessBuilder(commandList);
+
+            if (workingDirectory != null && !workingDirectory.isEmpty()) {
+                processBuilder.directory(new File(workingDirectory));
+            }
+            if (input != null) {
+                processBuilder.redirectInput(input);
+            }
+            process = processBuilder.start();
+
+            StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), System.out::println);
+            StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), System.err::println);
+
+            new Thread(outputGobbler).start();
+            new Thread(errorGobbler).start();
+
+            if (timeout.isZero()) {
+                process.waitFor();
+            } else if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Command for {} did not finish within {}, killing it", target, timeout);
+                killProcessTree(process);
+                return;
+            }
+            log.info("Process exited with code: " + process.exitValue());
+
+        } catch (InterruptedException ex) {
+            log.info("Killing command for {}, the watcher was stopped", target);
+            killProcessTree(process);
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log.error("Error triggering command", ex);
+        }
+    }
+
+    /**
+     * Kills the process and everything it started. The children are collected first, they can no longer be
+     * found through the process once it has gone.
+     */
+    private static void killProcessTree(Process process) {
+        var descendants = process.descendants().toList();
+        process.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+}
@@ -14,6 +14,13 @@ import java.io.*;
 @RequiredArgsConstructor
 @Slf4j
 public class ConfigManager {
+    /** How long a file must be left alone before its consolidated change triggers the command. */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+    /** Directories not worth watching, left out with everything below them. */
+    public static final List<String> DEFAULT_EXCLUDE_PATTERNS = List.of(".git", "node_modules", "target");
+    /** Commands for different files that may run at the same time. */
+    public static final int DEFAULT_MAX_PARALLEL_COMMANDS = Runtime.getRuntime().availableProcessors();
+
     private static String configFilePath;
 
     static {
@@ -26,8 +33,13 @@ public class ConfigManager {
         configPropertiesFile.setProperty("workingDirectory", config.workingDirectory);
         configPropertiesFile.setProperty("command", config.command);
         configPropertiesFile.setProperty("globPatterns", String.join(",", config.globPatterns));
+        configPropertiesFile.setProperty("excludePatterns", String.join(",", config.excludePatterns));
         configPropertiesFile.setProperty("monitorSubdirectories", String.valueOf(config.monitorSubdirectories));
         configPropertiesFile.setProperty("consolidateChanges", String.valueOf(config.consolidateChanges));
+        configPropertiesFile.setProperty("batchChanges", String.valueOf(config.batchChanges));
+        configPropertiesFile.setProperty("debounceMillis", String.valueOf(config.debounceMillis));
+        configPropertiesFile.setProperty("maxParallelCommands", String.valueOf(config.maxParallelCommands));
+        configPropertiesFile.setProperty("commandTimeoutSeconds", String.valueOf(config.commandTimeoutSeconds));
 
         try (OutputStream output = new FileOutputStream(configFilePath)) {
             configPropertiesFile.store(output, "Directory Watcher Configuration");
@@ -44,8 +56,13 @@ public class ConfigManager {
                 .workingDirectory(System.getProperty("user.home"))
                 .command(defaultCommand)
                 .globPatterns(List.of("*"))
+                .excludePatterns(DEFAULT_EXCLUDE_PATTERNS)
                 .monitorSubdirectories(false)
                 .consolidateChanges(true)
+                .batchChanges(false)
+                .debounceMillis(DEFAULT_DEBOUNCE_MILLIS)
+                .maxParallelCommands(DEFAULT_MAX_PARALLEL_COMMANDS)
+                .commandTimeoutSeconds(0)
                 .build();
         if (!Path.of(configFilePath).toFile().exists()) {
             saveConfig(defaultConfig);
@@ -58,10 +75,23 @@ public class ConfigManager {
             var command = configPropertiesFile.getProperty("command", "");
             var workingDirectory = configPropertiesFile.getProperty("workingDirectory", System.getProperty("user.home"));
             var globPatterns = Arrays.asList(configPropertiesFile.getProperty("globPatterns", "*").split(","));
+            var excludePatterns = Arrays.stream(configPropertiesFile.getProperty("excludePatterns",
+                            String.join(",", DEFAULT_EXCLUDE_PATTERNS)).split(","))
+                    .map(String::trim)
+                    .filter(pattern -> !pattern.isEmpty())
+                    .toList();
             var monitorSubdirectories = Boolean.parseBoolean(configPropertiesFile.getProperty("monitorSubdirectories", "false"));
             var consolidateChanges = Boolean.parseBoolean(configPropertiesFile.getProperty("consolidateChanges", "false"));
-            return new Config(watchedDirectory, workingDirectory, command, globPatterns, monitorSubdirectories, consolidateChanges);
-        } catch (IOException io) {
+            var batchChanges = Boolean.parseBoolean(configPropertiesFile.getProperty("batchChanges", "false"));
+            var debounceMillis = Long.parseLong(configPropertiesFile.getProperty("debounceMillis",
+                    String.valueOf(DEFAULT_DEBOUNCE_MILLIS)));
+            var maxParallelCommands = Integer.parseInt(configPropertiesFile.getProperty("maxParallelCommands",
+                    String.valueOf(DEFAULT_MAX_PARALLEL_COMMANDS)));
+            var commandTimeoutSeconds = Long.parseLong(configPropertiesFile.getProperty("commandTimeoutSeconds", "0"));
+            return new Config(watchedDirectory, workingDirectory, command, globPatterns, excludePatterns,
+                    monitorSubdirectories, consolidateChanges, batchChanges, debounceMillis, maxParallelCommands,
+                    commandTimeoutSeconds);
+        } catch (IOException | NumberFormatException io) {
             log.error("Error reading config file", io);
             return defaultConfig;
         }
@@ -69,6 +99,8 @@ public class ConfigManager {
 
     @Builder
     public record Config(String watchedDirectory, String workingDirectory, String command, List<String> globPatterns,
-                         boolean monitorSubdirectories, boolean consolidateChanges) {
+                         List<String> excludePatterns, boolean monitorSubdirectories, boolean consolidateChanges,
+                         boolean batchChanges, long debounceMillis, int maxParallelCommands,
+                         long commandTimeoutSeconds) {
     }
 }
@@ -3,28 +3,30 @@ package uk.anbu.samples.filewatcher;
 import com.google.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.File;
+import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 @Slf4j
 public class DirectoryWatcherApp {
     private final ConfigManager configManager;
     private DirectoryWatcherUI watcherUI;
     private WatchService watchService;
-    private ScheduledExecutorService executor;
-    private Future<?> watchTask;
-    private List<PathMatcher> pathMatchers;
-    private Map<WatchKey, Path> watchKeyToPath = new HashMap<>();
+    private ChangeCoalescer changeCoalescer;
+    private ChangeBatcher changeBatcher;
+    private CommandExecutor commandExecutor;
+    private PathFilter pathFilter;
+    private final Map<WatchKey, Path> watchKeyToPath = new ConcurrentHashMap<>();
 
 
     @Inject
@@ -35,158 +37,235 @@ public class DirectoryWatcherApp {
     public void run() {
         watcherUI = new DirectoryWatcherUI(this::startWatching, this::stopWatching, this.configManager);
         watcherUI.show();
-
-        try {
-            watchService = FileSystems.getDefault().newWatchService();
-        } catch (Exception ex) {
-            log.error("Error creating watch service", ex);
-        }
-
-        executor = Executors.newSingleThreadScheduledExecutor();
     }
 
     private void startWatching() {
         try {
-            String directoryPath = watcherUI.config().watchedDirectory();
-            List<String> globPatterns = watcherUI.config().globPatterns();
-            boolean monitorSubdirectories = watcherUI.config().monitorSubdirectories();
-            boolean consolidateChanges = watcherUI.config().consolidateChanges();
+            var config = watcherUI.config();
+            String directoryPath = config.watchedDirectory();
+            List<String> globPatterns = config.globPatterns();
+            boolean monitorSubdirectories = config.monitorSubdirectories();
 
             Path path = Paths.get(directoryPath);
 
             log.info("Going to start watching {} with patterns {}", path, globPatterns);
-            registerDirectory(path);
+            watchService = FileSystems.getDefault().newWatchService();
+            pathFilter = new PathFilter(path, globPatterns, config.excludePatterns());
 
             if (monitorSubdirectories) {
-                Files.walkFileTree(path, new SimpleFileVisitor<>() {
-                    @Override
-                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                        registerDirectory(dir);
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
+                long start = System.nanoTime();
+                ForkJoinPool.commonPool().invoke(new RegisterTree(path, null));
+                log.info("Registered {} directories under {} in {} ms, excluding {}", watchKeyToPath.size(), path,
+                        (System.nanoTime() - start) / 1_000_000, config.excludePatterns());
+            } else {
+                registerDirectory(path);
             }
 
-            pathMatchers = globPatterns.stream()
-                    .map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + pattern))
-                    .collect(Collectors.toList());
+            commandExecutor = new CommandExecutor(config.command(), config.workingDirectory(),
+                    config.maxParallelCommands(), Duration.ofSeconds(config.commandTimeoutSeconds()));
+            var executor = commandExecutor;
+            changeBatcher = config.batchChanges()
+                    ? new ChangeBatcher(Duration.ofMillis(config.debounceMillis()), executor::runBatch)
+                    : null;
+            Consumer<FileChange> onChange = changeBatcher != null ? changeBatcher::record : executor::submit;
+            changeCoalescer = config.consolidateChanges()
+                    ? new ChangeCoalescer(Duration.ofMillis(config.debounceMillis()), onChange)
+                    : null;
+
+            var service = watchService;
+            var coalescer = changeCoalescer;
+            Thread watchThread = new Thread(() -> watchEvents(service, monitorSubdirectories, coalescer, onChange),
+                    "directory-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
 
-            watchTask = executor.scheduleWithFixedDelay(() -> {
+        } catch (Exception ex) {
+            log.error("Error watching", ex);
+        }
+    }
+
+    /**
+     * Blocks on the watch service and handles the events of every key as soon as it is signalled, until the
+     * service is closed.
+     */
+    private void watchEvents(WatchService service, boolean monitorSubdirectories, ChangeCoalescer coalescer,
+                             Consumer<FileChange> onChange) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
                 try {
-                    processWatchEvents(monitorSubdirectories, consolidateChanges);
+                    processWatchEvents(key, monitorSubdirectories, coalescer, onChange, Set.of());
                 } catch (Exception ex) {
                     log.error("Error processing watch events: ", ex);
                 }
-            }, 0, 5, TimeUnit.SECONDS);
-
-        } catch (Exception ex) {
-            log.error("Error watching", ex);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            log.info("Stopped watching");
         }
     }
 
-    private void processWatchEvents(boolean monitorSubdirectories, boolean consolidateChanges) {
-        WatchKey key;
-        while ((key = watchService.poll()) != null) {
-            Path dir = watchKeyToPath.get(key);
-            if (dir == null) {
-                log.debug("Watch key {} is no longer valid", key);
+    /**
+     * Handles every event of the key. With change consolidation the matching ones go through the coalescer,
+     * which fires once per changed file after its quiet period, otherwise each of them is handed on as it is.
+     *
+     * @param caughtUp paths already reported or registered by a catch-up, their creation is not handled again
+     */
+    private void processWatchEvents(WatchKey key, boolean monitorSubdirectories, ChangeCoalescer coalescer,
+                                    Consumer<FileChange> onChange, Set<Path> caughtUp) {
+        Path dir = watchKeyToPath.get(key);
+        if (dir == null) {
+            log.debug("Watch key {} is no longer valid", key);
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.warn("Events in {} were lost, the watch service overflowed", dir);
                 continue;
             }
-            var polledEvents = key.pollEvents();
-            if (polledEvents == null || polledEvents.isEmpty()) {
+            Path eventPath = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && caughtUp.contains(eventPath)) {
+                log.debug("Creation of {} was already caught up", eventPath);
                 continue;
             }
-            var firstEvent = polledEvents.get(0);
-            var restOfEvents = polledEvents.stream().skip(1).toList();
-            Path firstEventPath = dir.resolve((Path) firstEvent.context());
-            if (pathMatchers.stream().anyMatch(matcher -> matcher.matches(firstEventPath.getFileName()))) {
-                if (consolidateChanges) {
-                    triggerCommand(firstEvent, firstEventPath);
-                    restOfEvents.forEach(fi ->
-                            log.info("Event of kind {} received {} times for file {}. Ignored due to change consolidation.",
-                                    fi.kind(), fi.count(), dir.resolve((Path) fi.context()))
-                    );
-                } else {
-                    polledEvents.forEach(fi -> triggerCommand(fi, dir.resolve((Path) fi.context())));
-                }
-            }
 
-            // If a new directory is created and we're monitoring subdirectories, register it
-            if (monitorSubdirectories && Files.isDirectory(firstEventPath)) {
-                registerDirectory(firstEventPath);
+            // A new directory may have been created with content already in it, for example by unpacking an
+            // archive, so its whole tree is registered and the files found in it are reported as created
+            CatchUp catchUp = null;
+            if (monitorSubdirectories && event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(eventPath, LinkOption.NOFOLLOW_LINKS)
+                    && !pathFilter.excludesDirectory(eventPath)) {
+                catchUp = new CatchUp();
+                ForkJoinPool.commonPool().invoke(new RegisterTree(eventPath, catchUp));
+                catchUp.files().forEach(file ->
+                        handleChange(file, StandardWatchEventKinds.ENTRY_CREATE, coalescer, onChange));
             }
-            if (!key.reset()) {
-                watchKeyToPath.remove(key);
-                log.debug("Watch key {} is no longer valid", key);
+
+            log.debug("Event of kind {} received {} times for file {}", event.kind(), event.count(), eventPath);
+            handleChange(eventPath, event.kind(), coalescer, onChange);
+
+            // Whatever was created in the new directories between their registration and their listing was
+            // listed and also has an event waiting on their keys, handle those events now and skip the duplicates
+            if (catchUp != null) {
+                for (WatchKey newKey : catchUp.keys()) {
+                    processWatchEvents(newKey, true, coalescer, onChange, catchUp.found());
+                }
             }
         }
+        if (!key.reset()) {
+            watchKeyToPath.remove(key);
+            log.debug("Watch key {} is no longer valid", key);
+        }
+    }
+
+    private void handleChange(Path path, WatchEvent.Kind<?> kind, ChangeCoalescer coalescer,
+                              Consumer<FileChange> onChange) {
+        if (!pathFilter.matches(path)) {
+            return;
+        }
+        if (coalescer != null) {
+            coalescer.record(path, kind);
+        } else {
+            onChange.accept(new FileChange(path, kind));
+        }
     }
 
-    private void registerDirectory(Path path) {
+    /**
+     * @return the watch key of the directory, {@code null} if it could not be registered
+     */
+    private WatchKey registerDirectory(Path path) {
         try {
-            log.info("Registering directory {}", path);
+            log.debug("Registering directory {}", path);
             WatchKey watchKey = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
                     StandardWatchEventKinds.ENTRY_DELETE,
                     StandardWatchEventKinds.ENTRY_MODIFY);
             watchKeyToPath.put(watchKey, path);
-            log.info("Registered directory {} with watch key {}", path, watchKey);
+            log.debug("Registered directory {} with watch key {}", path, watchKey);
+            return watchKey;
         } catch (Exception ex) {
             log.error("Error registering directory", ex);
+            return null;
         }
     }
 
     private void stopWatching() {
-        if (watchTask != null && !watchTask.isCancelled()) {
-            watchTask.cancel(true);
+        if (watchService != null) {
+            try {
+                // wakes the watch thread up and cancels all watch keys
+                watchService.close();
+            } catch (IOException ex) {
+                log.warn("Error closing watch service", ex);
+            }
+            watchService = null;
+        }
+        if (changeCoalescer != null) {
+            changeCoalescer.close();
+            changeCoalescer = null;
+        }
+        if (changeBatcher != null) {
+            changeBatcher.close();
+            changeBatcher = null;
+        }
+        if (commandExecutor != null) {
+            commandExecutor.close();
+            commandExecutor = null;
         }
         watchKeyToPath.clear();
     }
 
-    private void triggerCommand(WatchEvent<?> event, Path eventPath) {
-        log.info("Event of kind {} received {} times for file {}. Triggering command.", event.kind(), event.count(), eventPath);
-        try {
-            String command = watcherUI.config().command();
-            String workingDirectory = watcherUI.config().workingDirectory();
-
-            command = command.replace("${file}", eventPath.getFileName().toString())
-                    .replace("${file_dir}", eventPath.getParent().toString())
-                    .replace("${file_with_dir}", eventPath.toString());
-
-            log.info("Running command: " + command);
-            log.info("Working directory: {}", workingDirectory);
-
-            List<String> commandList = new ArrayList<>();
-            String os = System.getProperty("os.name").toLowerCase();
-            if (os.contains("win")) {
-                // Windows
-                commandList.add("cmd");
-                commandList.add("/c");
-            } else {
-                // Linux, macOS, and other Unix-like systems
-                commandList.add("bash");
-                commandList.add("-c");
-            }
-
-            commandList.add(command);
+    /**
+     * Registers a directory, then the directories below it that are not excluded, the subtrees in parallel. A
+     * directory is registered before it is listed, so nothing created in it meanwhile is missed. Symbolic links
+     * are not followed.
+     */
+    private class RegisterTree extends RecursiveAction {
+        private final Path dir;
+        private final CatchUp catchUp;
 
-            ProcessBuilder processBuilder = new ProcessBuilder(commandList);
+        /**
+         * @param catchUp collects what is found and registered, or {@code null}
+         */
+        private RegisterTree(Path dir, CatchUp catchUp) {
+            this.dir = dir;
+            this.catchUp = catchUp;
+        }
 
-            if (workingDirectory != null && !workingDirectory.isEmpty()) {
-                processBuilder.directory(new File(workingDirectory));
+        @Override
+        protected void compute() {
+            WatchKey watchKey = registerDirectory(dir);
+            if (catchUp != null && watchKey != null) {
+                catchUp.keys().add(watchKey);
             }
-            Process process = processBuilder.start();
-
-            StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), System.out::println);
-            StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), System.err::println);
-
-            new Thread(outputGobbler).start();
-            new Thread(errorGobbler).start();
-
-            int exitCode = process.waitFor();
-            log.info("Process exited with code: " + exitCode);
+            List<RegisterTree> subtrees = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (!Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (catchUp != null) {
+                            catchUp.files().add(entry);
+                            catchUp.found().add(entry);
+                        }
+                    } else if (pathFilter.excludesDirectory(entry)) {
+                        log.debug("Skipping excluded directory {}", entry);
+                    } else {
+                        if (catchUp != null) {
+                            catchUp.found().add(entry);
+                        }
+                        subtrees.add(new RegisterTree(entry, catchUp));
+                    }
+                }
+            } catch (IOException ex) {
+                log.warn("Error listing directory {}", dir, ex);
+            }
+            invokeAll(subtrees);
+        }
+    }
 
-        } catch (Exception ex) {
-            log.error("Error triggering command", ex);
+    /**
+     * What registering a new directory tree found: the files to report, every file and directory listed, and the
+     * watch keys of the directories registered.
+     */
+    private record CatchUp(Queue<Path> files, Set<Path> found, Queue<WatchKey> keys) {
+        private CatchUp() {
+            this(new ConcurrentLinkedQueue<>(), ConcurrentHashMap.newKeySet(), new ConcurrentLinkedQueue<>());
         }
     }
 }
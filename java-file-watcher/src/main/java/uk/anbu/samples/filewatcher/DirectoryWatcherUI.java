@@ -13,9 +13,14 @@ public class DirectoryWatcherUI {
     private final JTextField directoryField;
     private final JCheckBox monitorSubdirectoriesCheckbox;
     private final JCheckBox consolidateChangesCheckbox;
+    private final JCheckBox batchChangesCheckbox;
     private final JTextField workingDirField;
     private final JTextField globPatternsField;
+    private final JTextField excludePatternsField;
     private final JTextField commandField;
+    private final JTextField debounceField;
+    private final JTextField parallelCommandsField;
+    private final JTextField commandTimeoutField;
     private final JButton watchButton;
     private boolean isWatching = false;
 
@@ -34,7 +39,11 @@ public class DirectoryWatcherUI {
         addLabelAndField(mainPanel, gbc, "Directory to Monitor", directoryField = new JTextField(30));
         addLabelAndField(mainPanel, gbc, "Working Directory", workingDirField = new JTextField(30));
         addLabelAndField(mainPanel, gbc, "File Glob Pattern", globPatternsField = new JTextField(30));
+        addLabelAndField(mainPanel, gbc, "Exclude Directories", excludePatternsField = new JTextField(30));
         addLabelAndField(mainPanel, gbc, "Command to Trigger", commandField = new JTextField(30));
+        addLabelAndField(mainPanel, gbc, "Quiet Period (ms)", debounceField = new JTextField(30));
+        addLabelAndField(mainPanel, gbc, "Parallel Commands", parallelCommandsField = new JTextField(30));
+        addLabelAndField(mainPanel, gbc, "Command Timeout (s)", commandTimeoutField = new JTextField(30));
 
         // Checkboxes
         gbc.gridx = 0;
@@ -43,8 +52,10 @@ public class DirectoryWatcherUI {
         JPanel checkboxPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         monitorSubdirectoriesCheckbox = new JCheckBox("Monitor Subdirectories");
         consolidateChangesCheckbox = new JCheckBox("Consolidate Changes");
+        batchChangesCheckbox = new JCheckBox("Batch Changes");
         checkboxPanel.add(monitorSubdirectoriesCheckbox);
         checkboxPanel.add(consolidateChangesCheckbox);
+        checkboxPanel.add(batchChangesCheckbox);
         mainPanel.add(checkboxPanel, gbc);
 
         // Watch Button
@@ -96,8 +107,13 @@ public class DirectoryWatcherUI {
                 .workingDirectory(workingDirField.getText())
                 .command(commandField.getText())
                 .globPatterns(getGlobPatterns())
+                .excludePatterns(getExcludePatterns())
                 .monitorSubdirectories(monitorSubdirectoriesCheckbox.isSelected())
                 .consolidateChanges(consolidateChangesCheckbox.isSelected())
+                .batchChanges(batchChangesCheckbox.isSelected())
+                .debounceMillis(getDebounceMillis())
+                .maxParallelCommands(getMaxParallelCommands())
+                .commandTimeoutSeconds(getCommandTimeoutSeconds())
                 .build();
         configManager.saveConfig(config);
     }
@@ -138,16 +154,25 @@ public class DirectoryWatcherUI {
     private void setInputFieldsEditable(boolean editable) {
         directoryField.setEditable(editable);
         globPatternsField.setEditable(editable);
+        excludePatternsField.setEditable(editable);
         commandField.setEditable(editable);
         workingDirField.setEditable(editable);
+        debounceField.setEditable(editable);
+        parallelCommandsField.setEditable(editable);
+        commandTimeoutField.setEditable(editable);
         monitorSubdirectoriesCheckbox.setEnabled(editable);
         consolidateChangesCheckbox.setEnabled(editable);
+        batchChangesCheckbox.setEnabled(editable);
 
         Color backgroundColor = editable ? Color.WHITE : Color.LIGHT_GRAY;
         directoryField.setBackground(backgroundColor);
         workingDirField.setBackground(backgroundColor);
         globPatternsField.setBackground(backgroundColor);
+        excludePatternsField.setBackground(backgroundColor);
         commandField.setBackground(backgroundColor);
+        debounceField.setBackground(backgroundColor);
+        parallelCommandsField.setBackground(backgroundColor);
+        commandTimeoutField.setBackground(backgroundColor);
 
         watchButton.setText(isWatching ? "Stop" : "Watch");
     }
@@ -157,10 +182,15 @@ public class DirectoryWatcherUI {
 
         directoryField.setText(config.watchedDirectory());
         globPatternsField.setText(String.join(", ", config.globPatterns()));
+        excludePatternsField.setText(String.join(", ", config.excludePatterns()));
         workingDirField.setText(config.workingDirectory());
         commandField.setText(config.command());
         monitorSubdirectoriesCheckbox.setSelected(config.monitorSubdirectories());
         consolidateChangesCheckbox.setSelected(config.consolidateChanges());
+        batchChangesCheckbox.setSelected(config.batchChanges());
+        debounceField.setText(String.valueOf(config.debounceMillis()));
+        parallelCommandsField.setText(String.valueOf(config.maxParallelCommands()));
+        commandTimeoutField.setText(String.valueOf(config.commandTimeoutSeconds()));
         isWatching = false;
         watchButton.setText("Watch");
 
@@ -170,20 +200,55 @@ public class DirectoryWatcherUI {
     }
 
     public List<String> getGlobPatterns() {
-        return Arrays.stream(globPatternsField.getText().split(","))
+        return splitPatterns(globPatternsField);
+    }
+
+    public List<String> getExcludePatterns() {
+        return splitPatterns(excludePatternsField);
+    }
+
+    private static List<String> splitPatterns(JTextField field) {
+        return Arrays.stream(field.getText().split(","))
                 .map(String::trim)
                 .filter(s -> !s.isEmpty())
                 .collect(Collectors.toList());
     }
 
+    public long getDebounceMillis() {
+        return parseNumber(debounceField, 0, ConfigManager.DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public int getMaxParallelCommands() {
+        return (int) Math.min(Integer.MAX_VALUE,
+                parseNumber(parallelCommandsField, 1, ConfigManager.DEFAULT_MAX_PARALLEL_COMMANDS));
+    }
+
+    /** Seconds a command may run before it is killed, 0 for no limit. */
+    public long getCommandTimeoutSeconds() {
+        return parseNumber(commandTimeoutField, 0, 0);
+    }
+
+    private static long parseNumber(JTextField field, long min, long defaultValue) {
+        try {
+            return Math.max(min, Long.parseLong(field.getText().trim()));
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
     public ConfigManager.Config config() {
         return ConfigManager.Config.builder()
                 .watchedDirectory(directoryField.getText())
                 .workingDirectory(workingDirField.getText())
                 .command(commandField.getText())
                 .globPatterns(getGlobPatterns())
+                .excludePatterns(getExcludePatterns())
                 .monitorSubdirectories(monitorSubdirectoriesCheckbox.isSelected())
                 .consolidateChanges(consolidateChangesCheckbox.isSelected())
+                .batchChanges(batchChangesCheckbox.isSelected())
+                .debounceMillis(getDebounceMillis())
+                .maxParallelCommands(getMaxParallelCommands())
+                .commandTimeoutSeconds(getCommandTimeoutSeconds())
                 .build();
     }
 }
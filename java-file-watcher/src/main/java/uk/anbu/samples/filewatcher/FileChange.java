@@ -0,0 +1,10 @@
+package uk.anbu.samples.filewatcher;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * The net change to a file, one of {@code ENTRY_CREATE}, {@code ENTRY_MODIFY} or {@code ENTRY_DELETE}.
+ */
+public record FileChange(Path path, WatchEvent.Kind<?> kind) {
+}
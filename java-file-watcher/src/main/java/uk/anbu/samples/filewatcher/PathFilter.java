@@ -0,0 +1,360 @@
+package uk.anbu.samples.filewatcher;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which changed files trigger the command, compiled once from the glob patterns. A pattern starting with
+ * {@code !} excludes the files it matches, and without any other pattern every file is included. A pattern
+ * without a {@code /} matches the file name, like {@code *.java}, one with a {@code /} the path relative to the
+ * watched directory, like {@code src/**}{@code /*.java}, where {@code **} crosses directories. The globs follow
+ * {@link java.nio.file.FileSystem#getPathMatcher}, see {@link #toRegex} for the two places they match more.
+ * <p>
+ * Directories are excluded by the excluded directory patterns, which follow the same rules against the directory
+ * name or path, and by the {@code !} patterns that exclude everything below a directory, like
+ * {@code !build/generated/**}. Nothing below an excluded directory needs to be watched.
+ * <p>
+ * File name patterns are looked up by exact name and by extension, the rest are merged into one regular
+ * expression, so the cost hardly grows with the number of patterns. The path patterns that apply to a directory
+ * are worked out once and kept for the most recently seen directories. Path patterns whose file name part cannot
+ * be told apart from the directory part, like {@code src/**.java}, are merged and matched against the whole path.
+ */
+public class PathFilter {
+    private static final int CACHED_DIRECTORIES = 4096;
+
+    private final Path root;
+    private final boolean includeAll;
+    private final NameIndex includedNames;
+    private final NameIndex excludedNames;
+    private final NameIndex excludedDirectoryNames;
+    private final Pattern excludedDirectoryPaths;
+    private final List<PathRule> pathRules = new ArrayList<>();
+    private final Pattern includedPaths;
+    private final Pattern excludedPaths;
+    private final Map<Path, DirectoryRules> directoryRules = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, DirectoryRules> eldest) {
+            return size() > CACHED_DIRECTORIES;
+        }
+    };
+
+    public PathFilter(Path root, List<String> globPatterns, List<String> excludedDirectoryPatterns) {
+        this.root = root;
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        List<String> excludedDirectories = new ArrayList<>();
+        List<String> excludedDirectoryGlobs = new ArrayList<>();
+        List<String> includedPathGlobs = new ArrayList<>();
+        List<String> excludedPathGlobs = new ArrayList<>();
+        boolean anyInclude = false;
+        for (String globPattern : globPatterns) {
+            boolean exclude = globPattern.startsWith("!");
+            String glob = exclude ? globPattern.substring(1) : globPattern;
+            glob = glob.startsWith("/") ? glob.substring(1) : glob;
+            anyInclude |= !exclude;
+            if (!glob.contains("/")) {
+                (exclude ? excludes : includes).add(glob);
+            } else if (glob.endsWith("/**")) {
+                pathRules.add(new PathRule(Pattern.compile(toRegex(glob)), "*", exclude));
+                if (exclude) {
+                    excludedDirectoryGlobs.add(glob);
+                }
+            } else if (!splitsAtLastSlash(glob)) {
+                (exclude ? excludedPathGlobs : includedPathGlobs).add(glob);
+            } else {
+                int lastSlash = glob.lastIndexOf('/');
+                pathRules.add(new PathRule(Pattern.compile(toRegex(glob.substring(0, lastSlash + 1))),
+                        glob.substring(lastSlash + 1), exclude));
+            }
+        }
+        for (String pattern : excludedDirectoryPatterns) {
+            String glob = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+            (glob.contains("/") ? excludedDirectoryGlobs : excludedDirectories).add(glob);
+        }
+        this.includeAll = !anyInclude;
+        this.includedNames = NameIndex.of(includes);
+        this.excludedNames = NameIndex.of(excludes);
+        this.excludedDirectoryNames = NameIndex.of(excludedDirectories);
+        this.excludedDirectoryPaths = merge(excludedDirectoryGlobs);
+        this.includedPaths = merge(includedPathGlobs);
+        this.excludedPaths = merge(excludedPathGlobs);
+    }
+
+    public boolean matches(Path path) {
+        String name = path.getFileName().toString();
+        boolean anyPathRule = !pathRules.isEmpty() || includedPaths != null || excludedPaths != null;
+        DirectoryRules rules = anyPathRule ? rulesFor(path.getParent()) : DirectoryRules.NONE;
+        boolean included = includeAll || includedNames.matches(name) || rules.includes().matches(name)
+                || matchesPath(includedPaths, rules, name);
+        return included && !excludedNames.matches(name) && !rules.excludes().matches(name)
+                && !matchesPath(excludedPaths, rules, name);
+    }
+
+    private static boolean matchesPath(Pattern paths, DirectoryRules rules, String name) {
+        if (paths == null) {
+            return false;
+        }
+        return paths.matcher(rules.directoryPrefix() + name).matches();
+    }
+
+    /**
+     * Whether the directory, somewhere below the watched one, is excluded with everything in it.
+     */
+    public boolean excludesDirectory(Path dir) {
+        if (excludedDirectoryNames.matches(dir.getFileName().toString())) {
+            return true;
+        }
+        return excludedDirectoryPaths != null && excludedDirectoryPaths.matcher(relativize(dir)).matches();
+    }
+
+    private DirectoryRules rulesFor(Path dir) {
+        synchronized (directoryRules) {
+            return directoryRules.computeIfAbsent(dir, this::compileRules);
+        }
+    }
+
+    /**
+     * Collects the name parts of the path patterns whose directory part, up to and including its last {@code /},
+     * matches the directory.
+     */
+    private DirectoryRules compileRules(Path dir) {
+        String relativeDir = relativize(dir);
+        String directoryPrefix = relativeDir.isEmpty() ? "" : relativeDir + "/";
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        for (PathRule rule : pathRules) {
+            if (rule.directory().matcher(directoryPrefix).matches()) {
+                (rule.exclude() ? excludes : includes).add(rule.name());
+            }
+        }
+        return new DirectoryRules(directoryPrefix, NameIndex.of(includes), NameIndex.of(excludes));
+    }
+
+    /**
+     * Whether the glob splits into a directory part and a file name part at its last {@code /}, which it does
+     * unless the name part has a {@code **} or the {@code /} sits inside a {@code {a,b}} group.
+     */
+    private static boolean splitsAtLastSlash(String glob) {
+        int lastSlash = glob.lastIndexOf('/');
+        if (glob.indexOf("**", lastSlash) >= 0) {
+            return false;
+        }
+        boolean inGroup = false;
+        for (int i = 0; i < lastSlash; i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{') {
+                inGroup = true;
+            } else if (c == '}') {
+                inGroup = false;
+            }
+        }
+        return !inGroup;
+    }
+
+    private static Pattern merge(List<String> globs) {
+        return globs.isEmpty() ? null : Pattern.compile(globs.stream()
+                .map(glob -> "(?:" + toRegex(glob) + ")")
+                .collect(Collectors.joining("|")));
+    }
+
+    /** The directory relative to the watched one with {@code /} separators, empty for the watched directory. */
+    private String relativize(Path dir) {
+        Path relative = dir.startsWith(root) ? root.relativize(dir) : dir;
+        List<String> names = new ArrayList<>();
+        relative.forEach(name -> names.add(name.toString()));
+        return String.join("/", names);
+    }
+
+    /**
+     * Translates a glob into a regular expression the way {@link java.nio.file.FileSystem#getPathMatcher} does, with
+     * {@code /} as the separator: {@code *}, {@code ?} and {@code [...]} stay within a directory, {@code **} crosses
+     * directories, and groups {@code {a,b}} cannot be nested. Unlike there, {@code **}{@code /} also matches no
+     * directory at all and a trailing {@code /**} also matches the directory itself.
+     *
+     * @throws PatternSyntaxException if the glob is malformed, as {@code getPathMatcher} would
+     */
+    static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> {
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        boolean slashBefore = i == 0 || glob.charAt(i - 1) == '/';
+                        boolean atEnd = i + 2 == glob.length();
+                        if (slashBefore && !atEnd && glob.charAt(i + 2) == '/') {
+                            regex.append("(?:.*/)?");
+                            i += 2;
+                        } else if (slashBefore && atEnd && i > 0) {
+                            regex.setLength(regex.length() - 1);
+                            regex.append("(?:/.*)?");
+                            i++;
+                        } else {
+                            regex.append(".*");
+                            i++;
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                }
+                case '?' -> regex.append("[^/]");
+                case '[' -> i = appendClass(glob, i, regex);
+                case '{' -> {
+                    if (inGroup) {
+                        throw new PatternSyntaxException("Cannot nest groups", glob, i);
+                    }
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                }
+                case '}' -> {
+                    regex.append(inGroup ? "))" : "\\}");
+                    inGroup = false;
+                }
+                case ',' -> regex.append(inGroup ? ")|(?:" : ",");
+                case '\\' -> {
+                    if (i + 1 == glob.length()) {
+                        throw new PatternSyntaxException("No character to escape", glob, i);
+                    }
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                }
+                default -> {
+                    if (".^$+()|]".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+                }
+            }
+        }
+        if (inGroup) {
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Appends the character class opening at {@code open}, kept to one directory like the rest of the glob, and
+     * returns the index of its closing {@code ]}.
+     */
+    private static int appendClass(String glob, int open, StringBuilder regex) {
+        regex.append("[[^/]&&[");
+        int i = open + 1;
+        if (i < glob.length() && glob.charAt(i) == '^') {
+            regex.append("\\^");
+            i++;
+        } else {
+            if (i < glob.length() && glob.charAt(i) == '!') {
+                regex.append('^');
+                i++;
+            }
+            if (i < glob.length() && glob.charAt(i) == '-') {
+                regex.append('-');
+                i++;
+            }
+        }
+        boolean rangeStart = false;
+        char last = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i++);
+            if (c == ']') {
+                regex.append("]]");
+                return i - 1;
+            }
+            if (c == '/') {
+                throw new PatternSyntaxException("Explicit 'name separator' in class", glob, i - 1);
+            }
+            if (c == '\\' || c == '[' || c == '&' && i < glob.length() && glob.charAt(i) == '&') {
+                regex.append('\\');
+            }
+            regex.append(c);
+            if (c != '-') {
+                rangeStart = true;
+                last = c;
+                continue;
+            }
+            if (!rangeStart) {
+                throw new PatternSyntaxException("Invalid range", glob, i - 1);
+            }
+            if (i == glob.length()) {
+                break;
+            }
+            c = glob.charAt(i++);
+            if (c == ']') {
+                regex.append("]]");
+                return i - 1;
+            }
+            if (c < last) {
+                throw new PatternSyntaxException("Invalid range", glob, i - 3);
+            }
+            regex.append(c);
+            rangeStart = false;
+        }
+        throw new PatternSyntaxException("Missing ']'", glob, i - 1);
+    }
+
+    private record PathRule(Pattern directory, String name, boolean exclude) {
+    }
+
+    private record DirectoryRules(String directoryPrefix, NameIndex includes, NameIndex excludes) {
+        private static final DirectoryRules NONE = new DirectoryRules("", NameIndex.EMPTY, NameIndex.EMPTY);
+    }
+
+    /**
+     * File name patterns, looked up by exact name for plain names, by extension for {@code *.ext} and through one
+     * merged regular expression for the rest.
+     */
+    private record NameIndex(boolean matchesAll, Set<String> names, Set<String> extensions, Pattern others) {
+        private static final NameIndex EMPTY = new NameIndex(false, Set.of(), Set.of(), null);
+
+        static NameIndex of(Collection<String> globs) {
+            if (globs.isEmpty()) {
+                return EMPTY;
+            }
+            boolean matchesAll = false;
+            Set<String> names = new HashSet<>();
+            Set<String> extensions = new HashSet<>();
+            List<String> others = new ArrayList<>();
+            for (String glob : globs) {
+                if (glob.equals("*") || glob.equals("**")) {
+                    matchesAll = true;
+                } else if (isLiteral(glob)) {
+                    names.add(glob);
+                } else if (glob.startsWith("*.") && isLiteral(glob.substring(2)) && glob.indexOf('.', 2) < 0) {
+                    extensions.add(glob.substring(2));
+                } else {
+                    others.add(glob);
+                }
+            }
+            Pattern merged = others.isEmpty() ? null : Pattern.compile(others.stream()
+                    .map(glob -> "(?:" + toRegex(glob) + ")")
+                    .collect(Collectors.joining("|")));
+            return new NameIndex(matchesAll, names, extensions, merged);
+        }
+
+        boolean matches(String name) {
+            if (matchesAll || names.contains(name)) {
+                return true;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot >= 0 && extensions.contains(name.substring(dot + 1))) {
+                return true;
+            }
+            return others != null && others.matcher(name).matches();
+        }
+
+        private static boolean isLiteral(String glob) {
+            return glob.chars().noneMatch(c -> "*?[]{}\\".indexOf(c) >= 0);
+        }
+    }
+}
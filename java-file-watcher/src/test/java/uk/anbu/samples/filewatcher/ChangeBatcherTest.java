@@ -0,0 +1,105 @@
+package uk.anbu.samples.filewatcher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeBatcherTest {
+    private static final Duration WINDOW = Duration.ofMillis(300);
+    private static final FileChange A_CREATED = new FileChange(Path.of("a.txt"), ENTRY_CREATE);
+    private static final FileChange A_DELETED = new FileChange(Path.of("a.txt"), ENTRY_DELETE);
+    private static final FileChange B_MODIFIED = new FileChange(Path.of("b.txt"), ENTRY_MODIFY);
+    private static final FileChange C_MODIFIED = new FileChange(Path.of("c.txt"), ENTRY_MODIFY);
+
+    private final BlockingQueue<List<FileChange>> batches = new LinkedBlockingQueue<>();
+    private ChangeBatcher batcher = new ChangeBatcher(WINDOW, batches::add);
+
+    @AfterEach
+    void close() {
+        batcher.close();
+    }
+
+    @Test
+    void handsOverTheLatestChangeOfEachFileInOneBatch() throws InterruptedException {
+        batcher.record(A_CREATED);
+        batcher.record(B_MODIFIED);
+        batcher.record(A_DELETED);
+
+        assertEquals(List.of(B_MODIFIED, A_DELETED), batches.poll(2, TimeUnit.SECONDS));
+        assertNull(batches.poll(WINDOW.toMillis() * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void startsTheWindowAtTheFirstChange() throws InterruptedException {
+        long firstChange = System.nanoTime();
+        batcher.record(A_CREATED);
+        Thread.sleep(WINDOW.toMillis() / 3);
+        batcher.record(B_MODIFIED);
+
+        assertEquals(List.of(A_CREATED, B_MODIFIED), batches.poll(2, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - firstChange;
+        assertTrue(elapsed >= WINDOW.toNanos(), "handed over before the window was up");
+        assertTrue(elapsed < WINDOW.toNanos() + WINDOW.toNanos() / 3, "the window was extended by a later change");
+    }
+
+    @Test
+    void putsChangesAfterTheWindowIntoTheNextBatch() throws InterruptedException {
+        batcher.record(A_CREATED);
+        batcher.record(B_MODIFIED);
+        assertEquals(List.of(A_CREATED, B_MODIFIED), batches.poll(2, TimeUnit.SECONDS));
+
+        batcher.record(C_MODIFIED);
+        batcher.record(A_DELETED);
+
+        assertEquals(List.of(C_MODIFIED, A_DELETED), batches.poll(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void putsChangesWhileABatchIsHandledIntoTheNextBatch() throws InterruptedException {
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        batcher.close();
+        batcher = new ChangeBatcher(WINDOW, batch -> {
+            batches.add(batch);
+            handling.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        batcher.record(A_CREATED);
+        assertTrue(handling.await(2, TimeUnit.SECONDS));
+        batcher.record(B_MODIFIED);
+        batcher.record(C_MODIFIED);
+        Thread.sleep(WINDOW.toMillis() * 2);
+        release.countDown();
+
+        assertEquals(List.of(A_CREATED), batches.poll());
+        assertEquals(List.of(B_MODIFIED, C_MODIFIED), batches.poll(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void dropsPendingChangesWhenClosed() throws InterruptedException {
+        batcher.record(A_CREATED);
+        batcher.close();
+        batcher.record(B_MODIFIED);
+
+        assertNull(batches.poll(WINDOW.toMillis() * 2, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,92 @@
+package uk.anbu.samples.filewatcher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeCoalescerTest {
+    private static final Duration QUIET_PERIOD = Duration.ofMillis(200);
+    private static final Path FILE = Path.of("watched", "a.txt");
+    private static final Path OTHER_FILE = Path.of("watched", "b.txt");
+
+    private final BlockingQueue<FileChange> changes = new LinkedBlockingQueue<>();
+    private final ChangeCoalescer coalescer = new ChangeCoalescer(QUIET_PERIOD, changes::add);
+
+    @AfterEach
+    void close() {
+        coalescer.close();
+    }
+
+    @Test
+    void reportsOnceThePathHasBeenQuietForTheWholePeriod() throws InterruptedException {
+        long lastEvent = 0;
+        for (int i = 0; i < 6; i++) {
+            lastEvent = System.nanoTime();
+            coalescer.record(FILE, ENTRY_MODIFY);
+            Thread.sleep(QUIET_PERIOD.toMillis() / 4);
+        }
+        assertTrue(changes.isEmpty(), "reported while the events kept coming");
+
+        assertEquals(new FileChange(FILE, ENTRY_MODIFY), changes.poll(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - lastEvent >= QUIET_PERIOD.toNanos(), "reported before the quiet period");
+        assertNull(changes.poll(QUIET_PERIOD.toMillis() * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void reportsTheNetChange() throws InterruptedException {
+        assertEquals(ENTRY_CREATE, coalesce(ENTRY_CREATE, ENTRY_MODIFY));
+        assertEquals(ENTRY_MODIFY, coalesce(ENTRY_DELETE, ENTRY_CREATE));
+        assertEquals(ENTRY_DELETE, coalesce(ENTRY_MODIFY, ENTRY_DELETE));
+        assertEquals(ENTRY_MODIFY, coalesce(ENTRY_MODIFY, ENTRY_MODIFY));
+    }
+
+    @Test
+    void dropsAFileCreatedAndDeletedWithinThePeriod() throws InterruptedException {
+        coalescer.record(FILE, ENTRY_CREATE);
+        coalescer.record(FILE, ENTRY_MODIFY);
+        coalescer.record(FILE, ENTRY_DELETE);
+
+        assertNull(changes.poll(QUIET_PERIOD.toMillis() * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void waitsForEachPathSeparately() throws InterruptedException {
+        coalescer.record(FILE, ENTRY_MODIFY);
+        Thread.sleep(QUIET_PERIOD.toMillis() / 2);
+        coalescer.record(OTHER_FILE, ENTRY_MODIFY);
+
+        assertEquals(FILE, changes.poll(2, TimeUnit.SECONDS).path());
+        assertTrue(changes.isEmpty(), "reported a path before its own quiet period");
+        assertEquals(OTHER_FILE, changes.poll(2, TimeUnit.SECONDS).path());
+    }
+
+    @Test
+    void dropsPendingChangesWhenClosed() throws InterruptedException {
+        coalescer.record(FILE, ENTRY_MODIFY);
+        coalescer.close();
+
+        assertNull(changes.poll(QUIET_PERIOD.toMillis() * 2, TimeUnit.MILLISECONDS));
+    }
+
+    private WatchEvent.Kind<?> coalesce(WatchEvent.Kind<?>... kinds) throws InterruptedException {
+        for (WatchEvent.Kind<?> kind : kinds) {
+            coalescer.record(FILE, kind);
+        }
+        FileChange change = changes.poll(2, TimeUnit.SECONDS);
+        assertEquals(FILE, change.path());
+        return change.kind();
+    }
+}
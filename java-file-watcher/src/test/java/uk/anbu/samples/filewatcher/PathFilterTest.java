@@ -0,0 +1,151 @@
+package uk.anbu.samples.filewatcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathFilterTest {
+    private static final Path ROOT = Path.of("/watched");
+
+    private static final List<String> PATHS = List.of(
+            "A.java", "a.txt", "b.java", "-.java", "^.java", "!.java", "[.java", "].java", "&&.java", "a,b.java",
+            "src/A.java", "src/a.txt", "src/b.java", "src/main/A.java", "src/main/java/B.java", "src/test/a.txt",
+            "test/A.java", "test/src/A.java", "build/out.class", "build/generated/G.java", "x/build/G.java",
+            "src.java", "srcA.java", "src/.java");
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "*.java", "**.java", "**/*.java", "src/*.java", "src/**/*.java", "src/**.java", "src/**",
+            "**/src/*.java", "src/**/B.java", "**/build/**", "src/*/A.java", "?.java", "src/?.java",
+            "{A,b}.java", "src/{main,test}/*", "{src,test}/A.java", "{src/main,test}/*.java", "*.{java,txt}",
+            "[ab].*", "[!ab].java", "[a-c].java", "[^].java", "[-a].java", "[!-].java", "[a-].java", "[[].java",
+            "[&&].java", "]*", "a,b.java", "\\[.java", "src/[m]ain/*.java", "build/**/*.{class,java}"})
+    void translatesGlobsLikePathMatcher(String glob) {
+        PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        Pattern regex = Pattern.compile(PathFilter.toRegex(glob));
+        boolean lenient = glob.contains("**/") || glob.endsWith("/**");
+        for (String path : PATHS) {
+            boolean matched = regex.matcher(path).matches();
+            if (lenient && matched) {
+                continue;
+            }
+            assertEquals(expected.matches(Path.of(path)), matched, glob + " against " + path);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"*.java", "src/*.java", "src/**/*.java", "src/**.java", "**/src/*.java", "**.java",
+            "src/{main,test}/*", "{src/main,test}/*.java", "[!ab].java", "build/**", "*/A.java"})
+    void matchesFilesLikePathMatcher(String glob) {
+        PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        PathFilter filter = new PathFilter(ROOT, List.of(glob), List.of());
+        boolean lenient = glob.contains("**/") || glob.endsWith("/**");
+        for (String path : PATHS) {
+            boolean matched = filter.matches(ROOT.resolve(path));
+            if (lenient && matched) {
+                continue;
+            }
+            assertEquals(expected.matches(matchedPart(glob, path)), matched, glob + " against " + path);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"*.txt", "src/*.java", "src/**.java", "src/**/*.java", "**/build/**", "src/main/**",
+            "{A,b}.java", "src/{main,test}/*"})
+    void excludesFilesLikePathMatcher(String glob) {
+        PathMatcher excluded = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        PathFilter filter = new PathFilter(ROOT, List.of("!" + glob), List.of());
+        boolean lenient = glob.contains("**/") || glob.endsWith("/**");
+        for (String path : PATHS) {
+            boolean matched = filter.matches(ROOT.resolve(path));
+            if (lenient && !matched) {
+                continue;
+            }
+            assertEquals(!excluded.matches(matchedPart(glob, path)), matched, "!" + glob + " against " + path);
+        }
+    }
+
+    /** A glob without a {@code /} is matched against the file name, any other against the relative path. */
+    private static Path matchedPart(String glob, String path) {
+        return glob.contains("/") ? Path.of(path) : Path.of(path).getFileName();
+    }
+
+    @Test
+    void excludesTakePrecedenceOverIncludes() {
+        PathFilter filter = new PathFilter(ROOT, List.of("**/*.java", "!src/test/**", "!B.java"), List.of());
+
+        assertTrue(filter.matches(ROOT.resolve("src/main/A.java")));
+        assertFalse(filter.matches(ROOT.resolve("src/test/A.java")));
+        assertFalse(filter.matches(ROOT.resolve("src/main/java/B.java")));
+        assertFalse(filter.matches(ROOT.resolve("src/main/a.txt")));
+    }
+
+    @Test
+    void includesEverythingWithoutIncludePatterns() {
+        PathFilter filter = new PathFilter(ROOT, List.of("!*.class"), List.of());
+
+        assertTrue(filter.matches(ROOT.resolve("a.txt")));
+        assertTrue(filter.matches(ROOT.resolve("src/main/A.java")));
+        assertFalse(filter.matches(ROOT.resolve("build/out.class")));
+    }
+
+    @Test
+    void doubleStarSlashAlsoMatchesNoDirectory() {
+        PathFilter filter = new PathFilter(ROOT, List.of("src/**/*.java", "**/B.java"), List.of());
+
+        assertTrue(filter.matches(ROOT.resolve("src/A.java")));
+        assertTrue(filter.matches(ROOT.resolve("src/main/java/A.java")));
+        assertTrue(filter.matches(ROOT.resolve("B.java")));
+        assertFalse(filter.matches(ROOT.resolve("test/A.java")));
+    }
+
+    @Test
+    void trailingDoubleStarAlsoMatchesTheDirectoryItself() {
+        Pattern regex = Pattern.compile(PathFilter.toRegex("build/**"));
+
+        assertTrue(regex.matcher("build").matches());
+        assertTrue(regex.matcher("build/generated").matches());
+        assertFalse(regex.matcher("builder").matches());
+    }
+
+    @Test
+    void excludesDirectoriesByNameAndPath() {
+        PathFilter filter = new PathFilter(ROOT, List.of("!build/generated/**"), List.of("node_modules", "out/*"));
+
+        assertTrue(filter.excludesDirectory(ROOT.resolve("node_modules")));
+        assertTrue(filter.excludesDirectory(ROOT.resolve("web/node_modules")));
+        assertTrue(filter.excludesDirectory(ROOT.resolve("out/classes")));
+        assertFalse(filter.excludesDirectory(ROOT.resolve("out")));
+        assertFalse(filter.excludesDirectory(ROOT.resolve("web/out/classes")));
+        assertTrue(filter.excludesDirectory(ROOT.resolve("build/generated")));
+        assertTrue(filter.excludesDirectory(ROOT.resolve("build/generated/sources")));
+        assertFalse(filter.excludesDirectory(ROOT.resolve("build")));
+    }
+
+    @Test
+    void doesNotExcludeDirectoriesForFilePatterns() {
+        PathFilter filter = new PathFilter(ROOT, List.of("!build/*.class", "!src/**.java", "!*.txt"), List.of());
+
+        assertFalse(filter.excludesDirectory(ROOT.resolve("build")));
+        assertFalse(filter.excludesDirectory(ROOT.resolve("src/main")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"{a,{b,c}}", "{a,b", "[ab", "[a/b]", "[b-a]", "[a-b-c]", "[]].java", "a\\"})
+    void rejectsMalformedGlobsLikePathMatcher(String glob) {
+        assertThrows(PatternSyntaxException.class, () -> FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        assertThrows(PatternSyntaxException.class, () -> new PathFilter(ROOT, List.of(glob), List.of()));
+    }
+}
@@ -0,0 +1,44 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import org.apache.activemq.artemis.api.core.client.ActiveMQClient;
+import org.apache.activemq.artemis.core.remoting.impl.invm.InVMConnector;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.anbu.poc.stickyloadbalancer.JavaStickyLoadbalancerApplication;
+
+import java.util.stream.Stream;
+
+/**
+ * Starts the application the benchmarks run against: in-memory H2 and the embedded Artemis broker reached
+ * over {@code vm://0}, so numbers are comparable between machines and need no external services, with the
+ * {@code tuned} profile. The partition registry rescan is pushed out so the dispatcher does not drain rows the
+ * benchmarks write, and the queue is consumed by the idle listener container instead of a poller starting
+ * consumers every second.
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... args) {
+        System.setProperty("enableArtemisServer", "true");
+        return new SpringApplicationBuilder(JavaStickyLoadbalancerApplication.class)
+            .web(WebApplicationType.NONE)
+            .run(Stream.concat(Stream.of(
+                "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                "--sticky-lb.node-id=benchmark",
+                "--spring.profiles.active=tuned",
+                "--sticky-lb.broker-url=vm://0",
+                "--sticky-lb.listener.mode=push",
+                "--sticky-lb.dispatcher.rescan-interval=1h",
+                "--logging.level.root=WARN"), Stream.of(args)).toArray(String[]::new));
+    }
+
+    static void stop(ConfigurableApplicationContext context) {
+        context.close();
+        // the in-VM connector and the client keep static thread pools, which would keep the forked VM alive
+        InVMConnector.resetThreadPool();
+        ActiveMQClient.clearThreadPools();
+    }
+}
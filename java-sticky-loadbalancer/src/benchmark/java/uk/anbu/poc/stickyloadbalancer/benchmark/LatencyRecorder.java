@@ -0,0 +1,126 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+import uk.anbu.poc.stickyloadbalancer.service.TaskCompletedEvent;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Collects the completions the nodes publish, keyed on the work number the simulator gave each task. Latency is
+ * taken from the time a task was due to be sent rather than when it actually was, so a sender falling behind
+ * shows up in the numbers instead of hiding the backlog.
+ */
+final class LatencyRecorder {
+
+    private static final int PARTITION_LINES = 20;
+
+    private final LoadProfile profile;
+    private final AtomicLongArray dueNanos;
+    private final AtomicLongArray latencies;
+    private final AtomicIntegerArray completions;
+    private final Map<Integer, Set<String>> partitionNodes = new ConcurrentHashMap<>();
+    private final CountDownLatch outstanding;
+    private volatile long lastCompletedNanos;
+
+    LatencyRecorder(LoadProfile profile) {
+        int tasks = profile.sends().size();
+        this.profile = profile;
+        this.dueNanos = new AtomicLongArray(tasks);
+        this.latencies = new AtomicLongArray(tasks);
+        this.completions = new AtomicIntegerArray(tasks);
+        this.outstanding = new CountDownLatch(tasks);
+    }
+
+    void sent(int workNumber, long dueNanos) {
+        this.dueNanos.set(workNumber, dueNanos);
+    }
+
+    /** Listens for the tasks completed by one node. */
+    ApplicationListener<ApplicationEvent> listener(String node) {
+        return event -> {
+            if (event instanceof PayloadApplicationEvent<?> payloadEvent
+                && payloadEvent.getPayload() instanceof TaskCompletedEvent completed) {
+                completed(node, completed.task());
+            }
+        };
+    }
+
+    boolean await(Duration timeout) throws InterruptedException {
+        return outstanding.await(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    void report(PrintStream out, int nodes, long startNanos) {
+        int[] done = IntStream.range(0, completions.length()).filter(i -> completions.get(i) > 0).toArray();
+        int redelivered = IntStream.range(0, completions.length())
+            .map(i -> Math.max(0, completions.get(i) - 1))
+            .sum();
+        double seconds = Math.max(1, lastCompletedNanos - startNanos) / 1e9;
+
+        out.printf("Sent %d tasks over %.1f s to %d nodes: %d completed, %d more than once, %d missing%n",
+            profile.sends().size(), profile.duration().toMillis() / 1e3, nodes, done.length, redelivered,
+            profile.sends().size() - done.length);
+        out.printf("Throughput %.1f tasks/s, enqueue-to-completion latency %s%n", done.length / seconds,
+            percentiles(done));
+
+        Map<Integer, List<Integer>> byPartition = Arrays.stream(done).boxed()
+            .collect(Collectors.groupingBy(i -> profile.sends().get(i).partitionKey()));
+        long moved = partitionNodes.values().stream().filter(processedOn -> processedOn.size() > 1).count();
+        out.printf("%d of %d partitions were processed on more than one node%n", moved, byPartition.size());
+        out.printf("%9s %7s %8s %s%n", "partition", "tasks", "tasks/s", "latency");
+        byPartition.entrySet().stream()
+            .sorted(Comparator.comparingInt((Map.Entry<Integer, List<Integer>> entry) -> entry.getValue().size())
+                .reversed())
+            .limit(PARTITION_LINES)
+            .forEach(entry -> out.printf("%9d %7d %8.1f %s on %s%n", entry.getKey(), entry.getValue().size(),
+                entry.getValue().size() / seconds,
+                percentiles(entry.getValue().stream().mapToInt(Integer::intValue).toArray()),
+                partitionNodes.get(entry.getKey())));
+        if (byPartition.size() > PARTITION_LINES) {
+            out.printf("... and %d quieter partitions%n", byPartition.size() - PARTITION_LINES);
+        }
+    }
+
+    private void completed(String node, TaskInbox task) {
+        int workNumber = task.getWorkNumber();
+        if (workNumber < 0 || workNumber >= completions.length()) {
+            return;
+        }
+        long now = System.nanoTime();
+        partitionNodes.computeIfAbsent(task.getPartitionKey(), key -> ConcurrentHashMap.newKeySet()).add(node);
+        if (completions.getAndIncrement(workNumber) == 0) {
+            latencies.set(workNumber, now - dueNanos.get(workNumber));
+            lastCompletedNanos = now;
+            outstanding.countDown();
+        }
+    }
+
+    private String percentiles(int[] workNumbers) {
+        long[] sorted = Arrays.stream(workNumbers).mapToLong(latencies::get).sorted().toArray();
+        if (sorted.length == 0) {
+            return "n/a";
+        }
+        return String.format("p50 %s, p99 %s, p999 %s, max %s ms", millis(sorted, 0.5), millis(sorted, 0.99),
+            millis(sorted, 0.999), millis(sorted, 1));
+    }
+
+    private static String millis(long[] sorted, double quantile) {
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return String.format("%.1f", sorted[Math.max(0, rank - 1)] / 1e6);
+    }
+}
@@ -0,0 +1,93 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * When and to which partition the simulator sends each task. Generated profiles send at a fixed rate with the
+ * partition keys drawn from a distribution; a trace has one {@code <offset in ms>,<partition key>} line per
+ * task, so a recorded profile can be replayed as it was.
+ */
+record LoadProfile(List<Send> sends) {
+
+    record Send(long offsetNanos, int partitionKey) {
+    }
+
+    static LoadProfile generate(double rate, Duration duration, IntSupplier partitionKeys) {
+        long count = (long) (rate * duration.toNanos() / 1e9);
+        List<Send> sends = new ArrayList<>((int) count);
+        for (long i = 0; i < count; i++) {
+            sends.add(new Send((long) (i * 1e9 / rate), partitionKeys.getAsInt()));
+        }
+        return new LoadProfile(sends);
+    }
+
+    static LoadProfile read(Path trace) throws IOException {
+        List<Send> sends = new ArrayList<>();
+        for (String line : Files.readAllLines(trace)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            sends.add(new Send((long) (Double.parseDouble(fields[0].trim()) * 1e6), Integer.parseInt(fields[1].trim())));
+        }
+        return new LoadProfile(sends);
+    }
+
+    void write(Path trace) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(trace)) {
+            writer.write("# offset ms,partition key");
+            writer.newLine();
+            for (Send send : sends) {
+                writer.write(String.format(Locale.ROOT, "%.3f,%d", send.offsetNanos() / 1e6, send.partitionKey()));
+                writer.newLine();
+            }
+        }
+    }
+
+    Duration duration() {
+        return sends.isEmpty() ? Duration.ZERO : Duration.ofNanos(sends.get(sends.size() - 1).offsetNanos());
+    }
+
+    long partitions() {
+        return sends.stream().mapToInt(Send::partitionKey).distinct().count();
+    }
+
+    static IntSupplier uniform(int partitions, Random random) {
+        return () -> random.nextInt(partitions) + 1;
+    }
+
+    /** Partition 1 is the most frequent, partition {@code k} is drawn with a weight of {@code 1 / k^exponent}. */
+    static IntSupplier zipf(int partitions, double exponent, Random random) {
+        double[] cumulative = new double[partitions];
+        double total = 0;
+        for (int rank = 1; rank <= partitions; rank++) {
+            total += 1 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = total;
+        }
+        double sum = total;
+        return () -> {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            return (index >= 0 ? index : -index - 1) + 1;
+        };
+    }
+
+    /** {@code hotShare} of the tasks go to partitions 1 to {@code hotKeys}, the rest are spread over the others. */
+    static IntSupplier hotKey(int partitions, int hotKeys, double hotShare, Random random) {
+        if (hotKeys >= partitions) {
+            return uniform(partitions, random);
+        }
+        return () -> random.nextDouble() < hotShare
+            ? random.nextInt(hotKeys) + 1
+            : random.nextInt(partitions - hotKeys) + hotKeys + 1;
+    }
+}
@@ -0,0 +1,157 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import jakarta.jms.Message;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jms.core.JmsTemplate;
+import uk.anbu.poc.stickyloadbalancer.JavaStickyLoadbalancerApplication;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+import uk.anbu.poc.stickyloadbalancer.ownership.TaskRouter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Runs a cluster of application nodes in one JVM and drives it with a generated or recorded load, then reports
+ * enqueue-to-completion latency and per-partition throughput. The first node runs the embedded broker, the
+ * others reach it over {@code vm://0}, and all of them share one in-memory H2 database. Tasks are sent from the
+ * first node to the queue its router picks, in the message group of their partition, the way the REST endpoints
+ * send them.
+ *
+ * <pre>
+ * --nodes=3                    application nodes to start
+ * --rate=100 --duration=30s    tasks per second, and for how long
+ * --partitions=100             partition keys 1 to partitions
+ * --distribution=uniform       or zipf (--zipf-exponent=1.0), or hot-key (--hot-keys=1 --hot-share=0.5)
+ * --seed=1                     seed of the partition key draw
+ * --trace=load.csv             replay a trace instead of generating the load
+ * --record=load.csv            write the generated load as a trace
+ * --drain-timeout=60s          how long to wait for the last tasks after sending
+ * --profiles=tuned             Spring profiles of the nodes, empty for the defaults in application.yml
+ * </pre>
+ * Any other argument is passed on to every node, for example {@code --sticky-lb.processor.task-time=10ms}.
+ */
+public final class LoadSimulator {
+
+    private static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+    private static final Set<String> OPTIONS = Set.of("nodes", "rate", "duration", "partitions", "distribution",
+        "zipf-exponent", "hot-keys", "hot-share", "seed", "trace", "record", "drain-timeout", "profiles");
+
+    private LoadSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> nodeArgs = new ArrayList<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (arg.startsWith("--") && OPTIONS.contains(option[0])) {
+                options.put(option[0], option.length > 1 ? option[1] : "");
+            } else {
+                nodeArgs.add(arg);
+            }
+        }
+
+        LoadProfile profile = profile(options);
+        if (options.containsKey("record")) {
+            profile.write(Path.of(options.get("record")));
+        }
+        int nodes = Integer.parseInt(options.getOrDefault("nodes", "3"));
+        Duration drainTimeout = DurationStyle.detectAndParse(options.getOrDefault("drain-timeout", "60s"));
+
+        LatencyRecorder recorder = new LatencyRecorder(profile);
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        try {
+            for (int node = 1; node <= nodes; node++) {
+                contexts.add(startNode(node, recorder, options.getOrDefault("profiles", "tuned"), nodeArgs));
+            }
+            System.out.printf("Sending %d tasks to %d partitions over %.1f s%n", profile.sends().size(),
+                profile.partitions(), profile.duration().toMillis() / 1e3);
+            long start = send(profile, contexts.get(0).getBean(JmsTemplate.class),
+                contexts.get(0).getBean(TaskRouter.class), recorder);
+            if (!recorder.await(drainTimeout)) {
+                System.out.printf("Gave up waiting for the last tasks after %s%n", drainTimeout);
+            }
+            recorder.report(System.out, nodes, start);
+        } finally {
+            // the broker runs in the first node, so it goes last
+            for (int node = contexts.size() - 1; node > 0; node--) {
+                contexts.get(node).close();
+            }
+            if (!contexts.isEmpty()) {
+                BenchmarkContext.stop(contexts.get(0));
+            }
+        }
+    }
+
+    private static LoadProfile profile(Map<String, String> options) throws Exception {
+        if (options.containsKey("trace")) {
+            return LoadProfile.read(Path.of(options.get("trace")));
+        }
+        int partitions = Integer.parseInt(options.getOrDefault("partitions", "100"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+        IntSupplier partitionKeys = switch (options.getOrDefault("distribution", "uniform")) {
+            case "uniform" -> LoadProfile.uniform(partitions, random);
+            case "zipf" -> LoadProfile.zipf(partitions,
+                Double.parseDouble(options.getOrDefault("zipf-exponent", "1.0")), random);
+            case "hot-key" -> LoadProfile.hotKey(partitions,
+                Integer.parseInt(options.getOrDefault("hot-keys", "1")),
+                Double.parseDouble(options.getOrDefault("hot-share", "0.5")), random);
+            default -> throw new IllegalArgumentException("Unknown distribution " + options.get("distribution"));
+        };
+        return LoadProfile.generate(Double.parseDouble(options.getOrDefault("rate", "100")),
+            DurationStyle.detectAndParse(options.getOrDefault("duration", "30s")), partitionKeys);
+    }
+
+    private static ConfigurableApplicationContext startNode(int node, LatencyRecorder recorder, String profiles,
+                                                            List<String> args) {
+        System.setProperty("enableArtemisServer", String.valueOf(node == 1));
+        return new SpringApplicationBuilder(JavaStickyLoadbalancerApplication.class)
+            .web(WebApplicationType.NONE)
+            .listeners(recorder.listener("node-" + node))
+            .run(Stream.concat(Stream.of(
+                "--spring.datasource.url=jdbc:h2:mem:simulator;DB_CLOSE_DELAY=-1",
+                "--sticky-lb.broker-url=vm://0",
+                "--sticky-lb.node-id=node-" + node,
+                "--spring.profiles.active=" + profiles,
+                "--logging.level.root=WARN"), args.stream()).toArray(String[]::new));
+    }
+
+    /**
+     * Sends every task when it is due, numbering them in send order through the work number.
+     *
+     * @return when sending started, in {@link System#nanoTime()}
+     */
+    private static long send(LoadProfile profile, JmsTemplate jmsTemplate, TaskRouter taskRouter,
+                             LatencyRecorder recorder) {
+        long start = System.nanoTime();
+        List<LoadProfile.Send> sends = profile.sends();
+        for (int workNumber = 0; workNumber < sends.size(); workNumber++) {
+            LoadProfile.Send send = sends.get(workNumber);
+            long due = start + send.offsetNanos();
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            TaskMessage taskMessage = new TaskMessage();
+            taskMessage.setPartitionKey(send.partitionKey());
+            taskMessage.setWorkNumber(workNumber);
+            recorder.sent(workNumber, due);
+            jmsTemplate.convertAndSend(taskRouter.destinationOf(send.partitionKey()), taskMessage, (Message message) -> {
+                message.setStringProperty(GROUP_ID_PROPERTY, "P-" + send.partitionKey());
+                return message;
+            });
+        }
+        return start;
+    }
+}
@@ -0,0 +1,84 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.integration.jdbc.lock.DefaultLockRepository;
+import org.springframework.integration.jdbc.lock.JdbcLockRegistry;
+import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import uk.anbu.poc.stickyloadbalancer.config.LockConfig;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.lock.LeaseCachingLockRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Taking and releasing a partition lock through the plain {@code JdbcLockRegistry} and through the
+ * lease cache, both on the application's {@code int_lock} repository.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class LockRegistryBenchmark {
+
+    private static final String LOCK_KEY = "P-benchmark";
+
+    @Param({"jdbc", "lease-cache"})
+    private String registry;
+
+    private ConfigurableApplicationContext context;
+    private LockRegistry lockRegistry;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        DefaultLockRepository lockRepository = context.getBean(DefaultLockRepository.class);
+        lockRegistry = switch (registry) {
+            case "jdbc" -> new JdbcLockRegistry(lockRepository);
+            case "lease-cache" -> new LeaseCachingLockRegistry(lockRepository,
+                context.getBean(NamedParameterJdbcTemplate.class), LockConfig.LOCK_REGION,
+                context.getBean(StickyLoadBalancerProperties.class).getNodeId(), LockConfig.LOCK_TIME_TO_LIVE,
+                Duration.ofSeconds(30), Duration.ofMinutes(10));
+            default -> throw new IllegalArgumentException("Unknown registry " + registry);
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (lockRegistry instanceof LeaseCachingLockRegistry leaseCachingLockRegistry) {
+            leaseCachingLockRegistry.destroy();
+        }
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public Lock obtain() {
+        return lockRegistry.obtain(LOCK_KEY);
+    }
+
+    @Benchmark
+    public boolean obtainTryLockUnlock() throws InterruptedException {
+        Lock lock = lockRegistry.obtain(LOCK_KEY);
+        boolean acquired = lock.tryLock(1, TimeUnit.SECONDS);
+        if (acquired) {
+            lock.unlock();
+        }
+        return acquired;
+    }
+}
@@ -0,0 +1,109 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+import uk.anbu.poc.stickyloadbalancer.repository.TaskInboxRepository;
+import uk.anbu.poc.stickyloadbalancer.service.EnqueuedTasks;
+import uk.anbu.poc.stickyloadbalancer.service.TaskInboxWriter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbox writes and reads. The partition read is seeded with {@code partitionSize} rows in a partition of its
+ * own; writes go to a separate partition so the read does not grow while it is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TaskInboxBenchmark {
+
+    private static final int READ_PARTITION = 1001;
+    private static final int WRITE_PARTITION = 1002;
+    private static final int DEDUP_BATCH = 100;
+
+    @Param({"100", "1000"})
+    private int partitionSize;
+
+    private ConfigurableApplicationContext context;
+    private TaskInboxWriter taskInboxWriter;
+    private TaskInboxRepository taskInboxRepository;
+    private TaskMessage writeMessage;
+    private String knownMessageId;
+    private List<String> dedupBatch;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start();
+        taskInboxWriter = context.getBean(TaskInboxWriter.class);
+        taskInboxRepository = context.getBean(TaskInboxRepository.class);
+
+        Map<String, TaskMessage> seed = new LinkedHashMap<>();
+        for (int workNumber = 0; workNumber < partitionSize; workNumber++) {
+            seed.put(UUID.randomUUID().toString(), taskMessage(READ_PARTITION, workNumber));
+        }
+        taskInboxWriter.writeMessages(seed);
+        knownMessageId = seed.keySet().iterator().next();
+        dedupBatch = seed.keySet().stream().limit(DEDUP_BATCH).toList();
+
+        writeMessage = taskMessage(WRITE_PARTITION, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public Optional<EnqueuedTasks> writeMessage() {
+        return taskInboxWriter.writeMessage(UUID.randomUUID().toString(), writeMessage);
+    }
+
+    @Benchmark
+    public Optional<EnqueuedTasks> writeDuplicateMessage() {
+        return taskInboxWriter.writeMessage(knownMessageId, writeMessage);
+    }
+
+    @Benchmark
+    public Optional<TaskInbox> dedupLookup() {
+        return taskInboxRepository.findByMessageId(knownMessageId);
+    }
+
+    @Benchmark
+    public Set<String> dedupLookupBatch() {
+        return taskInboxRepository.findExistingMessageIds(dedupBatch);
+    }
+
+    @Benchmark
+    public List<TaskInbox> findByPartitionKeyOrderById() {
+        return taskInboxRepository.findByPartitionKeyOrderById(READ_PARTITION);
+    }
+
+    private static TaskMessage taskMessage(int partitionKey, int workNumber) {
+        TaskMessage message = new TaskMessage();
+        message.setPartitionKey(partitionKey);
+        message.setWorkNumber(workNumber);
+        return message;
+    }
+}
@@ -0,0 +1,90 @@
+package uk.anbu.poc.stickyloadbalancer.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.jms.Connection;
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.anbu.poc.stickyloadbalancer.codec.TaskMessageConverter;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of {@link TaskMessage} to and from Artemis messages through the {@link TaskMessageConverter} for
+ * each codec, with plain {@link ObjectMapper} JSON conversion as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TaskMessageCodecBenchmark {
+
+    @Param({"json", "binary-v1"})
+    private String codec;
+
+    private ConfigurableApplicationContext context;
+    private Connection connection;
+    private Session session;
+    private TaskMessageConverter converter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TaskMessage taskMessage;
+    private Message message;
+    private String json;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = BenchmarkContext.start("--sticky-lb.codec.format=" + codec);
+        connection = context.getBean(ConnectionFactory.class).createConnection();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        converter = context.getBean(TaskMessageConverter.class);
+
+        taskMessage = new TaskMessage();
+        taskMessage.setPartitionKey(7);
+        taskMessage.setWorkNumber(42);
+        message = converter.toMessage(taskMessage, session);
+        json = objectMapper.writeValueAsString(taskMessage);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        session.close();
+        connection.close();
+        BenchmarkContext.stop(context);
+    }
+
+    @Benchmark
+    public Message toJmsMessage() throws Exception {
+        return converter.toMessage(taskMessage, session);
+    }
+
+    @Benchmark
+    public TaskMessage fromJmsMessage() throws Exception {
+        return converter.fromMessage(message);
+    }
+
+    @Benchmark
+    public String writeJson() throws Exception {
+        return objectMapper.writeValueAsString(taskMessage);
+    }
+
+    @Benchmark
+    public TaskMessage readJson() throws Exception {
+        return objectMapper.readValue(json, TaskMessage.class);
+    }
+}
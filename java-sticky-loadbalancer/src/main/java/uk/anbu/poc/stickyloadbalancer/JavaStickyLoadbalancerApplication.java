@@ -4,9 +4,12 @@ import jakarta.jms.ConnectionFactory;
 import jakarta.jms.JMSException;
 import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
 import org.springframework.boot.SpringApplication;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jms.connection.CachingConnectionFactory;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.context.annotation.Condition;
 import org.springframework.context.annotation.ConditionContext;
@@ -19,6 +22,8 @@ import org.springframework.jms.support.converter.MappingJackson2MessageConverter
 import org.springframework.jms.support.converter.MessageType;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import uk.anbu.poc.stickyloadbalancer.codec.TaskMessageConverter;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
 
 @SpringBootApplication
 @EnableAsync
@@ -54,20 +59,36 @@ public class JavaStickyLoadbalancerApplication {
     }
 
     @Bean
-    public JmsTemplate jmsTemplate(ConnectionFactory connectionFactory, MappingJackson2MessageConverter jacksonJmsMessageConverter) {
-        JmsTemplate template = new JmsTemplate(connectionFactory);
-        template.setMessageConverter(jacksonJmsMessageConverter);
+    public JmsTemplate jmsTemplate(@Qualifier("producerConnectionFactory") ConnectionFactory producerConnectionFactory,
+                                   TaskMessageConverter taskMessageConverter) {
+        JmsTemplate template = new JmsTemplate(producerConnectionFactory);
+        template.setMessageConverter(taskMessageConverter);
         return template;
     }
 
     @Bean
-    public ConnectionFactory connectionFactory() throws JMSException {
+    @Primary
+    public ConnectionFactory connectionFactory(StickyLoadBalancerProperties properties) throws JMSException {
         ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory();
         // Use TCP connection if running against external broker
-        connectionFactory.setBrokerURL("tcp://localhost:61616");
+        connectionFactory.setBrokerURL(properties.getBrokerUrl());
+        connectionFactory.setConsumerWindowSize(properties.getListener().getConsumerWindowSize());
         return connectionFactory;
     }
 
+    /**
+     * Producers share one connection and reuse cached sessions and producers, instead of opening a connection
+     * per send. Consumers stay on the plain factory, cached consumers would hold on to messages.
+     */
+    @Bean
+    public CachingConnectionFactory producerConnectionFactory(ConnectionFactory connectionFactory,
+                                                              StickyLoadBalancerProperties properties) {
+        CachingConnectionFactory cachingConnectionFactory = new CachingConnectionFactory(connectionFactory);
+        cachingConnectionFactory.setSessionCacheSize(properties.getPublisher().getSessionCacheSize());
+        cachingConnectionFactory.setCacheConsumers(false);
+        return cachingConnectionFactory;
+    }
+
     @Bean
     public MappingJackson2MessageConverter jacksonJmsMessageConverter() {
         MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
@@ -0,0 +1,9 @@
+package uk.anbu.poc.stickyloadbalancer.admission;
+
+import java.util.Set;
+
+/**
+ * Published when intake is throttled or resumed, globally or for some partitions.
+ */
+public record AdmissionChangedEvent(boolean overloaded, Set<Integer> overloadedPartitions) {
+}
@@ -0,0 +1,131 @@
+package uk.anbu.poc.stickyloadbalancer.admission;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.entity.PartitionState;
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
+import uk.anbu.poc.stickyloadbalancer.repository.TaskInboxRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Decides whether new tasks are admitted, from the inbox depth in {@code partition_state} and the age of the
+ * oldest task in the inbox. Intake stops once the whole inbox, or a single partition, reaches its high-water
+ * mark, or the oldest task is older than {@code maxLag}, and only resumes once depth and lag are back below
+ * {@value #RESUME_RATIO} of their limits, so intake does not flap around the mark. The registry is shared, so
+ * every node sees the same cluster-wide depth.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdmissionControl {
+
+    private static final double RESUME_RATIO = 0.8;
+
+    private final PartitionStateRepository partitionStateRepository;
+    private final TaskInboxRepository taskInboxRepository;
+    private final StickyLoadBalancerProperties properties;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile boolean overloaded;
+    private volatile Set<Integer> overloadedPartitions = Set.of();
+
+    @Scheduled(fixedDelayString = "${sticky-lb.admission.refresh-interval:1s}")
+    public void refresh() {
+        if (!properties.getAdmission().isEnabled()) {
+            return;
+        }
+
+        try {
+            var admission = properties.getAdmission();
+            List<PartitionState> partitions = partitionStateRepository.findAll();
+            long depth = partitions.stream().mapToLong(PartitionState::getPendingCount).sum();
+            Duration lag = oldestPending(partitions)
+                .map(TaskInbox::getCreatedAt)
+                .map(createdAt -> Duration.between(createdAt, LocalDateTime.now(ZoneOffset.UTC)))
+                .orElse(Duration.ZERO);
+
+            boolean nowOverloaded = overloaded
+                ? depth >= admission.getMaxInboxDepth() * RESUME_RATIO
+                    || lag.toMillis() >= admission.getMaxLag().toMillis() * RESUME_RATIO
+                : depth >= admission.getMaxInboxDepth() || lag.compareTo(admission.getMaxLag()) >= 0;
+            Set<Integer> nowOverloadedPartitions = partitions.stream()
+                .filter(partition -> overloadedPartitions.contains(partition.getPartitionKey())
+                    ? partition.getPendingCount() >= admission.getMaxPartitionDepth() * RESUME_RATIO
+                    : partition.getPendingCount() >= admission.getMaxPartitionDepth())
+                .map(PartitionState::getPartitionKey)
+                .collect(Collectors.toUnmodifiableSet());
+
+            if (nowOverloaded != overloaded || !nowOverloadedPartitions.equals(overloadedPartitions)) {
+                log.info("Admission changed: overloaded={} (depth {}, lag {}), overloaded partitions {}",
+                    nowOverloaded, depth, lag, nowOverloadedPartitions);
+                overloaded = nowOverloaded;
+                overloadedPartitions = nowOverloadedPartitions;
+                eventPublisher.publishEvent(new AdmissionChangedEvent(nowOverloaded, nowOverloadedPartitions));
+            }
+        } catch (Exception e) {
+            log.error("Error refreshing admission state", e);
+        }
+    }
+
+    /**
+     * The oldest row still waiting to be processed. With the watermark on, processed rows stay in the inbox
+     * until they are purged, so each partition with pending work is looked up after its watermark.
+     */
+    private Optional<TaskInbox> oldestPending(List<PartitionState> partitions) {
+        if (!properties.getProcessor().isWatermark()) {
+            return taskInboxRepository.findFirstByOrderById();
+        }
+        return partitions.stream()
+            .filter(partition -> partition.getPendingCount() > 0)
+            .map(partition -> taskInboxRepository.findFirstByPartitionKeyAndIdGreaterThanOrderById(
+                partition.getPartitionKey(), partition.getLastProcessedId()))
+            .flatMap(Optional::stream)
+            .min(Comparator.comparing(TaskInbox::getCreatedAt));
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public boolean isOverloaded(int partitionKey) {
+        return overloaded || overloadedPartitions.contains(partitionKey);
+    }
+
+    public Set<Integer> overloadedPartitions() {
+        return overloadedPartitions;
+    }
+
+    public Duration retryAfter() {
+        return properties.getAdmission().getRetryAfter();
+    }
+
+    public void checkAdmitted() {
+        if (overloaded) {
+            throw new TaskRejectedException("Task inbox is over its high-water mark", retryAfter());
+        }
+    }
+
+    /**
+     * @param partitionKey the partition of the task, {@code null} checks the global limits only
+     */
+    public void checkAdmitted(Integer partitionKey) {
+        checkAdmitted();
+        if (partitionKey != null && overloadedPartitions.contains(partitionKey)) {
+            throw new TaskRejectedException("Partition " + partitionKey + " is over its high-water mark",
+                retryAfter());
+        }
+    }
+}
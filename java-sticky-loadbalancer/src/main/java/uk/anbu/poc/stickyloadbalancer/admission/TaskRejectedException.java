@@ -0,0 +1,19 @@
+package uk.anbu.poc.stickyloadbalancer.admission;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a task is not accepted because the inbox is over its high-water mark.
+ */
+@Getter
+public class TaskRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public TaskRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
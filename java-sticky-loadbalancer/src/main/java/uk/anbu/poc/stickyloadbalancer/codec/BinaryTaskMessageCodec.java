@@ -0,0 +1,52 @@
+package uk.anbu.poc.stickyloadbalancer.codec;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+
+/**
+ * Fixed 8 byte layout in a {@link BytesMessage}: {@code partitionKey} and {@code workNumber} as big-endian
+ * 32 bit integers. Any change to the layout needs a new codec name.
+ */
+@Component
+public class BinaryTaskMessageCodec implements TaskMessageCodec {
+
+    public static final String NAME = "binary-v1";
+    private static final int LENGTH = 2 * Integer.BYTES;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Message encode(TaskMessage taskMessage, Session session) throws JMSException {
+        if (taskMessage.getPartitionKey() == null || taskMessage.getWorkNumber() == null) {
+            throw new MessageConversionException("partitionKey and workNumber are required for " + NAME);
+        }
+        BytesMessage message = session.createBytesMessage();
+        message.writeInt(taskMessage.getPartitionKey());
+        message.writeInt(taskMessage.getWorkNumber());
+        return message;
+    }
+
+    @Override
+    public TaskMessage decode(Message message) throws JMSException {
+        if (!(message instanceof BytesMessage bytesMessage)) {
+            throw new MessageConversionException("Expected a BytesMessage for " + NAME);
+        }
+        bytesMessage.reset(); // read from the start even if the body was read before
+        if (bytesMessage.getBodyLength() != LENGTH) {
+            throw new MessageConversionException("Expected " + LENGTH + " bytes for " + NAME
+                + " but got " + bytesMessage.getBodyLength());
+        }
+        TaskMessage taskMessage = new TaskMessage();
+        taskMessage.setPartitionKey(bytesMessage.readInt());
+        taskMessage.setWorkNumber(bytesMessage.readInt());
+        return taskMessage;
+    }
+}
@@ -0,0 +1,51 @@
+package uk.anbu.poc.stickyloadbalancer.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import jakarta.jms.TextMessage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+
+import java.io.IOException;
+
+/**
+ * The original format: a JSON {@link TextMessage} written by the Jackson message converter, including its
+ * {@code _type_} header, so nodes that predate the codec header can still read it.
+ */
+@Component
+@RequiredArgsConstructor
+public class JsonTaskMessageCodec implements TaskMessageCodec {
+
+    public static final String NAME = "json";
+
+    private final MappingJackson2MessageConverter jacksonJmsMessageConverter;
+    private final ObjectReader reader = new ObjectMapper().readerFor(TaskMessage.class);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Message encode(TaskMessage taskMessage, Session session) throws JMSException {
+        return jacksonJmsMessageConverter.toMessage(taskMessage, session);
+    }
+
+    @Override
+    public TaskMessage decode(Message message) throws JMSException {
+        if (!(message instanceof TextMessage textMessage)) {
+            throw new MessageConversionException("Expected a TextMessage but got " + message.getClass().getName());
+        }
+        try {
+            return reader.readValue(textMessage.getText());
+        } catch (IOException e) {
+            throw new MessageConversionException("Could not read JSON task message", e);
+        }
+    }
+}
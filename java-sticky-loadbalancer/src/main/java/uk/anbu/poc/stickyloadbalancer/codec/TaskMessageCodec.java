@@ -0,0 +1,19 @@
+package uk.anbu.poc.stickyloadbalancer.codec;
+
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+
+/**
+ * One wire format for {@link TaskMessage}. The {@link TaskMessageConverter} writes the codec {@link #name()}
+ * into every message it sends and picks the codec for a received message by that header.
+ */
+public interface TaskMessageCodec {
+
+    String name();
+
+    Message encode(TaskMessage taskMessage, Session session) throws JMSException;
+
+    TaskMessage decode(Message message) throws JMSException;
+}
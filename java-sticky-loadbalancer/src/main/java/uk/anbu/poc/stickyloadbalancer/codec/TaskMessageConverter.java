@@ -0,0 +1,58 @@
+package uk.anbu.poc.stickyloadbalancer.codec;
+
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.Session;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Converts {@link TaskMessage}s with the codec named by {@code sticky-lb.codec.format} and reads them with the
+ * codec named in the {@value #CODEC_PROPERTY} header, so nodes sending different formats can share a queue.
+ * Messages without the header were written before codecs existed and are JSON.
+ */
+@Component
+public class TaskMessageConverter implements MessageConverter {
+
+    public static final String CODEC_PROPERTY = "_codec_";
+
+    private final Map<String, TaskMessageCodec> codecs;
+    private final TaskMessageCodec encoder;
+
+    public TaskMessageConverter(List<TaskMessageCodec> codecs, StickyLoadBalancerProperties properties) {
+        this.codecs = codecs.stream().collect(Collectors.toMap(TaskMessageCodec::name, Function.identity()));
+        this.encoder = codec(properties.getCodec().getFormat());
+    }
+
+    @Override
+    public Message toMessage(Object object, Session session) throws JMSException {
+        if (!(object instanceof TaskMessage taskMessage)) {
+            throw new MessageConversionException("Cannot convert " + object.getClass().getName());
+        }
+        Message message = encoder.encode(taskMessage, session);
+        message.setStringProperty(CODEC_PROPERTY, encoder.name());
+        return message;
+    }
+
+    @Override
+    public TaskMessage fromMessage(Message message) throws JMSException {
+        String name = message.getStringProperty(CODEC_PROPERTY);
+        return codec(name == null ? JsonTaskMessageCodec.NAME : name).decode(message);
+    }
+
+    private TaskMessageCodec codec(String name) {
+        TaskMessageCodec codec = codecs.get(name);
+        if (codec == null) {
+            throw new MessageConversionException("Unknown task message codec " + name + ", known: " + codecs.keySet());
+        }
+        return codec;
+    }
+}
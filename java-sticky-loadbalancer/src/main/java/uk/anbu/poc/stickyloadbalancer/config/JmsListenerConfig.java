@@ -0,0 +1,29 @@
+package uk.anbu.poc.stickyloadbalancer.config;
+
+import jakarta.jms.ConnectionFactory;
+import org.springframework.boot.autoconfigure.jms.DefaultJmsListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties.ListenerMode;
+
+@Configuration
+public class JmsListenerConfig {
+
+    /**
+     * Container factory for the push listener on the task queue. Concurrency and acknowledgement come from
+     * the {@code spring.jms.listener} settings; the session is always transacted so a message is only
+     * acknowledged once it has been written to the inbox. The containers only start in PUSH mode.
+     */
+    @Bean
+    public DefaultJmsListenerContainerFactory taskQueueListenerContainerFactory(
+            DefaultJmsListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            StickyLoadBalancerProperties properties) {
+        DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setSessionTransacted(true);
+        factory.setAutoStartup(properties.getListener().getMode() == ListenerMode.PUSH);
+        return factory;
+    }
+}
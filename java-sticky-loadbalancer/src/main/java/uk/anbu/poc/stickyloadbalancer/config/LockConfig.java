@@ -5,22 +5,34 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.jdbc.lock.DefaultLockRepository;
 import org.springframework.integration.jdbc.lock.JdbcLockRegistry;
 import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import uk.anbu.poc.stickyloadbalancer.lock.LeaseCachingLockRegistry;
 
 import javax.sql.DataSource;
+import java.time.Duration;
 
 @Configuration
 public class LockConfig {
 
+    public static final String LOCK_REGION = "task-processor";
+    public static final Duration LOCK_TIME_TO_LIVE = Duration.ofSeconds(300);
+
     @Bean
-    public DefaultLockRepository defaultLockRepository(DataSource dataSource) {
-        DefaultLockRepository repository = new DefaultLockRepository(dataSource);
-        repository.setTimeToLive(300000); // 300 seconds
-        repository.setRegion("task-processor");
+    public DefaultLockRepository defaultLockRepository(DataSource dataSource, StickyLoadBalancerProperties properties) {
+        DefaultLockRepository repository = new DefaultLockRepository(dataSource, properties.getNodeId());
+        repository.setTimeToLive((int) LOCK_TIME_TO_LIVE.toMillis());
+        repository.setRegion(LOCK_REGION);
         return repository;
     }
 
     @Bean
-    public LockRegistry lockRegistry(DefaultLockRepository lockRepository) {
+    public LockRegistry lockRegistry(DefaultLockRepository lockRepository,
+                                     NamedParameterJdbcTemplate jdbcTemplate,
+                                     StickyLoadBalancerProperties properties) {
+        if (properties.getLocks().isCacheLeases()) {
+            return new LeaseCachingLockRegistry(lockRepository, jdbcTemplate, LOCK_REGION, properties.getNodeId(),
+                LOCK_TIME_TO_LIVE, properties.getLocks().getRenewInterval(), properties.getLocks().getIdleRelease());
+        }
         return new JdbcLockRegistry(lockRepository);
     }
 }
@@ -0,0 +1,198 @@
+package uk.anbu.poc.stickyloadbalancer.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "sticky-lb")
+public class StickyLoadBalancerProperties {
+
+    /**
+     * Identifies this node in the lock table and on the ownership ring, at most 36 characters. A random id
+     * unless set; must be set, and kept across restarts, with routing on.
+     */
+    private String nodeId = UUID.randomUUID().toString();
+    /** Artemis broker the node connects to, {@code vm://0} for the embedded broker in the same JVM. */
+    private String brokerUrl = "tcp://localhost:61616";
+    private final Listener listener = new Listener();
+    private final Processor processor = new Processor();
+    private final Dispatcher dispatcher = new Dispatcher();
+    private final Ownership ownership = new Ownership();
+    private final Routing routing = new Routing();
+    private final Locks locks = new Locks();
+    private final Metrics metrics = new Metrics();
+    private final Publisher publisher = new Publisher();
+    private final Codec codec = new Codec();
+    private final Admission admission = new Admission();
+    private final Dedup dedup = new Dedup();
+
+    public enum ListenerMode {
+        /** Receive and persist one message per transaction. */
+        POLL,
+        /** Drain up to {@code batchSize} messages per transacted JMS session and persist them in one JDBC batch. */
+        BATCH,
+        /** Event-driven consumption through a listener container, see {@code spring.jms.listener}. */
+        PUSH
+    }
+
+    @Data
+    public static class Listener {
+        private ListenerMode mode = ListenerMode.POLL;
+        private int batchSize = 100;
+        private Duration batchWait = Duration.ofMillis(100);
+        /** Number of queue consumers each node runs in parallel. */
+        private int consumers = 4;
+        /** Serialise polling across the cluster with the legacy {@code task-queue-poll-lock}. */
+        private boolean exclusivePollLock = false;
+        /** Artemis consumer window (prefetch) in bytes, {@code -1} for unbounded, {@code 0} to disable buffering. */
+        private int consumerWindowSize = 1024 * 1024;
+    }
+
+    @Data
+    public static class Processor {
+        /** Read a partition in keyset-paginated pages instead of loading the whole backlog at once. */
+        private boolean streaming = false;
+        private int pageSize = 100;
+        /** How long processing a task takes, the stand-in for the real work. */
+        private Duration taskTime = Duration.ofMillis(100);
+        /**
+         * Mark finished rows with a processed-up-to id per partition and leave deleting them to the background
+         * purge, instead of deleting them as they are processed.
+         */
+        private boolean watermark = false;
+        /** How often rows below the watermark are deleted from the inbox. */
+        private Duration purgeInterval = Duration.ofSeconds(5);
+        /** Most rows deleted per purge statement, so a large backlog is purged in short transactions. */
+        private int purgeBatchSize = 10_000;
+    }
+
+    @Data
+    public static class Dispatcher {
+        /** How long a worker sleeps between checks of its partition when nobody signals it. */
+        private Duration idlePoll = Duration.ofSeconds(1);
+        /** How long a worker keeps its partition without finding work before releasing it. */
+        private Duration idleTimeout = Duration.ofSeconds(60);
+        /** How long a partition locked by another node is left alone before this node tries it again. */
+        private Duration ownershipRecheck = Duration.ofSeconds(30);
+        /** How long a new worker waits for the partition lock. */
+        private Duration lockWait = Duration.ofSeconds(1);
+        /** How often a worker renews its partition lock, must stay well below the lock time-to-live. */
+        private Duration leaseRenewInterval = Duration.ofSeconds(60);
+        /** How often the whole inbox is scanned for partitions with work. */
+        private Duration rescanInterval = Duration.ofSeconds(30);
+        /** Pass rows written by this node straight to its own worker of the partition instead of re-reading them. */
+        private boolean handOff = false;
+        /** Most handed-off rows a worker queues in memory; beyond this it drops them and reads the inbox instead. */
+        private int handOffLimit = 10_000;
+        /**
+         * Let only as many workers go to the database at a time as the connection pool can serve, taking turns
+         * by partition weighted by backlog.
+         */
+        private boolean limitConcurrency = false;
+        /** Pool connections left for the listener and background jobs when limiting worker concurrency. */
+        private int reservedConnections = 2;
+        /** How often the per-partition backlog weighting the turns is read from {@code partition_state}. */
+        private Duration backlogRefresh = Duration.ofSeconds(1);
+        /** Window over which per-partition throughput is compared to find hot partitions. */
+        private Duration hotPartitionWindow = Duration.ofSeconds(30);
+        /** Share of the tasks processed in a window above which a partition is reported as hot. */
+        private double hotPartitionShare = 0.25;
+        /** How long shutdown waits for workers to finish their current task and release their partitions. */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Ownership {
+        /** Place partitions on live nodes with a consistent-hash ring instead of letting any node take any partition. */
+        private boolean enabled = false;
+        private Duration heartbeatInterval = Duration.ofSeconds(2);
+        /** A node whose heartbeat is older than this is no longer considered a member. */
+        private Duration memberTimeout = Duration.ofSeconds(10);
+        /** Points per node on the ring, more points spread partitions more evenly. */
+        private int virtualNodes = 128;
+        /**
+         * How often the registry is checked for work in the partitions this node owns. Rows another node wrote
+         * for them signal nobody here, so without this they wait for the next rescan.
+         */
+        private Duration pendingPollInterval = Duration.ofSeconds(1);
+        /**
+         * Delete the locks of a node whose heartbeat is older than {@code memberTimeout}, so its partitions can be
+         * taken over right away instead of when the lock time-to-live runs out. {@code memberTimeout} must stay
+         * above the longest pause a live node can have.
+         */
+        private boolean reapDeadMembers = false;
+    }
+
+    @Data
+    public static class Routing {
+        /**
+         * Send each task to the queue of the node that owns its partition instead of the shared queue every node
+         * competes for. Needs ownership.
+         */
+        private boolean enabled = false;
+        /** How long tasks go to the shared queue after the membership changed, until every node has seen it. */
+        private Duration settleTime = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Locks {
+        /** Keep database leases for locks this node holds in memory instead of a round-trip per lock call. */
+        private boolean cacheLeases = false;
+        /** How often held leases are renewed in one batch, must stay well below the lock time-to-live. */
+        private Duration renewInterval = Duration.ofSeconds(30);
+        /** Leases unused for this long are given back. */
+        private Duration idleRelease = Duration.ofSeconds(120);
+    }
+
+    @Data
+    public static class Metrics {
+        /** How often the per-partition inbox depth gauges are refreshed from {@code partition_state}. */
+        private Duration depthRefresh = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Publisher {
+        /** Messages sent on one transacted session before it is committed and acknowledged to the caller. */
+        private int commitInterval = 1000;
+        /** Producer sessions kept open by the caching connection factory. */
+        private int sessionCacheSize = 10;
+    }
+
+    @Data
+    public static class Codec {
+        /** Wire format for sent task messages, {@code json} or {@code binary-v1}. Any known format is read. */
+        private String format = "json";
+    }
+
+    @Data
+    public static class Admission {
+        /** Reject new tasks and hold back the queue drain while the inbox is over its high-water marks. */
+        private boolean enabled = false;
+        /** High-water mark for pending tasks across all partitions. */
+        private long maxInboxDepth = 100_000;
+        /** High-water mark for pending tasks in one partition. */
+        private long maxPartitionDepth = 10_000;
+        /** High-water mark for the age of the oldest pending task. */
+        private Duration maxLag = Duration.ofMinutes(5);
+        /** How often depth and lag are read from the database. */
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        /** Sent as {@code Retry-After} with rejected requests. */
+        private Duration retryAfter = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Dedup {
+        /**
+         * Recognise redeliveries from a node-local cache of recent message ids and let the unique constraint
+         * catch the rest, instead of looking every message up before writing it.
+         */
+        private boolean enabled = false;
+        /** Most message ids kept, least recently seen ones are dropped first. */
+        private int cacheSize = 100_000;
+    }
+}
@@ -1,14 +1,31 @@
 package uk.anbu.poc.stickyloadbalancer.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.jms.JMSException;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessagePostProcessor;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import uk.anbu.poc.stickyloadbalancer.admission.AdmissionControl;
+import uk.anbu.poc.stickyloadbalancer.admission.TaskRejectedException;
+import uk.anbu.poc.stickyloadbalancer.model.BatchAck;
 import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+import uk.anbu.poc.stickyloadbalancer.ownership.TaskRouter;
+import uk.anbu.poc.stickyloadbalancer.service.TaskPublisher;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.concurrent.ThreadLocalRandom;
 
 @RestController
@@ -16,30 +33,91 @@ import java.util.concurrent.ThreadLocalRandom;
 public class TaskController {
 
     private final JmsTemplate jmsTemplate;
-    private static final String QUEUE_NAME = "task-queue";
+    private final TaskPublisher taskPublisher;
+    private final ObjectMapper objectMapper;
+    private final AdmissionControl admissionControl;
+    private final TaskRouter taskRouter;
+    private static final String GROUP_ID_PROPERTY = "JMSXGroupID";
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskController.class);
 
     @Autowired
-    public TaskController(JmsTemplate jmsTemplate) {
+    public TaskController(JmsTemplate jmsTemplate, TaskPublisher taskPublisher, ObjectMapper objectMapper,
+                          AdmissionControl admissionControl, TaskRouter taskRouter) {
         this.jmsTemplate = jmsTemplate;
+        this.taskPublisher = taskPublisher;
+        this.objectMapper = objectMapper;
+        this.admissionControl = admissionControl;
+        this.taskRouter = taskRouter;
     }
 
     @PostMapping("/send")
     public ResponseEntity<String> sendTask(@RequestBody TaskMessage taskMessage) {
+        admissionControl.checkAdmitted(taskMessage.getPartitionKey());
         log.info("Sending task {}", taskMessage);
-        jmsTemplate.convertAndSend(QUEUE_NAME, taskMessage);
+        jmsTemplate.convertAndSend(taskRouter.destinationOf(taskMessage.getPartitionKey()), taskMessage,
+            inPartitionGroup(taskMessage));
         return ResponseEntity.ok("Message sent successfully");
     }
 
     @PostMapping("/dump")
     public ResponseEntity<String> dump() {
+        admissionControl.checkAdmitted();
         for(int workNumber = 0; workNumber < 100; workNumber++) {
             TaskMessage taskMessage = new TaskMessage();
             taskMessage.setPartitionKey(ThreadLocalRandom.current().nextInt(1, 11));
             taskMessage.setWorkNumber(workNumber);
-            jmsTemplate.convertAndSend(QUEUE_NAME, taskMessage);
+            jmsTemplate.convertAndSend(taskRouter.destinationOf(taskMessage.getPartitionKey()), taskMessage,
+                inPartitionGroup(taskMessage));
         }
         return ResponseEntity.ok("Messages dumped successfully");
     }
+
+    /**
+     * Publishes a newline-delimited JSON stream of tasks. The response is newline-delimited JSON too, one
+     * {@link BatchAck} per batch written as soon as the batch is committed, so a producer knows exactly which
+     * messages are on the queue even if the request fails half way.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+        produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void sendBatch(InputStream body, HttpServletResponse response) throws IOException, JMSException {
+        admissionControl.checkAdmitted();
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        OutputStream out = response.getOutputStream();
+        long sent = taskPublisher.publish(body, ack -> writeAck(out, ack));
+        log.info("Published {} tasks from bulk request", sent);
+    }
+
+    /**
+     * Tasks refused by admission control are answered with 429 and a {@code Retry-After} in seconds. Once a
+     * bulk publish has started, refusals are reported in its batch acknowledgements instead.
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> rejected(TaskRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+            .contentType(MediaType.TEXT_PLAIN)
+            .body(e.getMessage());
+    }
+
+    private void writeAck(OutputStream out, BatchAck ack) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(ack));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Puts the message into the broker message group of its partition, so that only one consumer in the
+     * cluster receives a given partition at a time and its messages reach the inbox in send order.
+     */
+    private static MessagePostProcessor inPartitionGroup(TaskMessage taskMessage) {
+        return message -> {
+            message.setStringProperty(GROUP_ID_PROPERTY, "P-" + taskMessage.getPartitionKey());
+            return message;
+        };
+    }
 }
@@ -0,0 +1,22 @@
+package uk.anbu.poc.stickyloadbalancer.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+@Entity
+@Table(name = "partition_state")
+@Data
+public class PartitionState {
+    @Id
+    @Column(name = "partition_key", nullable = false)
+    private Integer partitionKey;
+
+    @Column(name = "pending_count", nullable = false)
+    private Long pendingCount;
+
+    @Column(name = "last_enqueued_id", nullable = false)
+    private Long lastEnqueuedId;
+
+    @Column(name = "last_processed_id", nullable = false)
+    private Long lastProcessedId;
+}
@@ -1,38 +1,153 @@
 package uk.anbu.poc.stickyloadbalancer.listener;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.jms.Connection;
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.JMSException;
 import jakarta.jms.Message;
-import jakarta.jms.TextMessage;
+import jakarta.jms.MessageConsumer;
+import jakarta.jms.Session;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
 import org.springframework.integration.support.locks.LockRegistry;
-import org.springframework.jms.core.JmsTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.MessageListenerContainer;
 import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.admission.AdmissionChangedEvent;
+import uk.anbu.poc.stickyloadbalancer.admission.AdmissionControl;
+import uk.anbu.poc.stickyloadbalancer.codec.TaskMessageConverter;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties.ListenerMode;
+import uk.anbu.poc.stickyloadbalancer.metrics.TaskMetrics;
 import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+import uk.anbu.poc.stickyloadbalancer.ownership.TaskRouter;
+import uk.anbu.poc.stickyloadbalancer.service.EnqueuedTasks;
+import uk.anbu.poc.stickyloadbalancer.service.PartitionDispatcher;
 import uk.anbu.poc.stickyloadbalancer.service.TaskInboxReader;
 import uk.anbu.poc.stickyloadbalancer.service.TaskInboxWriter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
+/**
+ * Moves task messages from the queues into the inbox. In push mode the listener containers deliver them, in the
+ * poll modes a dedicated thread drains the queues every second. A drain only returns once its queue is empty,
+ * so it runs apart from the shared scheduler, whose jobs would otherwise wait for as long as the load lasts.
+ */
 @Component
 @Slf4j
 @RequiredArgsConstructor
-public class TaskMessageListener {
+public class TaskMessageListener implements SmartLifecycle {
+
+    /** Stops before the dispatcher, so no drain is still writing to the inbox while the workers wind down. */
+    public static final int PHASE = PartitionDispatcher.PHASE + 1;
 
     private final TaskInboxWriter taskInboxWriter;
     private final TaskInboxReader taskInboxReader;
-    private final JmsTemplate jmsTemplate;
+    private final ConnectionFactory connectionFactory;
     private final LockRegistry lockRegistry;
+    private final StickyLoadBalancerProperties properties;
+    private final TaskMetrics taskMetrics;
+    private final TaskMessageConverter taskMessageConverter;
+    private final AdmissionControl admissionControl;
+    private final JmsListenerEndpointRegistry jmsListenerEndpointRegistry;
+    private final TaskRouter taskRouter;
 
+    private static final String LISTENER_ID = "task-queue-listener";
+    private static final String NODE_LISTENER_ID = "node-queue-listener";
     private static final String LOCK_KEY = "task-queue-poll-lock";
     private static final long LOCK_TIMEOUT = 30; // seconds
+    private static final long POLL_INTERVAL = 1000; // milliseconds
+
+    private volatile boolean running;
+    private ScheduledExecutorService poller;
+    /** Only used on the poller thread, a slot's session is lent to one drain at a time. */
+    private Connection connection;
+    private final Map<String, List<DrainSlot>> slots = new HashMap<>();
+
+    @JmsListener(id = LISTENER_ID, destination = TaskRouter.SHARED_QUEUE,
+        containerFactory = "taskQueueListenerContainerFactory")
+    public void onMessage(Message message) throws JMSException {
+        processMessage(message).ifPresent(enqueued -> taskInboxReader.newTasksWritten(List.of(enqueued)));
+    }
+
+    /**
+     * Tasks routed to this node because it owns their partition.
+     */
+    @JmsListener(id = NODE_LISTENER_ID, destination = "#{@taskRouter.localQueue()}",
+        containerFactory = "taskQueueListenerContainerFactory")
+    public void onNodeMessage(Message message) throws JMSException {
+        onMessage(message);
+    }
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Override
+    public void start() {
+        running = true;
+        poller = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("task-queue-poller").daemon().factory());
+        poller.scheduleWithFixedDelay(this::pollMessages, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling, waits for the running drains to commit the batch they are on and closes the consumers.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        poller.shutdown();
+        try {
+            if (!poller.awaitTermination(properties.getDispatcher().getShutdownTimeout().toMillis(),
+                TimeUnit.MILLISECONDS)) {
+                log.warn("Queue drains did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeConnection();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private void pollMessages() {
+        Map<String, Integer> queues = properties.getListener().getMode() == ListenerMode.PUSH
+            // the listener containers deliver the shared and the node queue, only departed nodes' queues are left
+            ? taskRouter.departedQueues().stream().collect(Collectors.toMap(queue -> queue, queue -> 1))
+            : taskRouter.consumedQueues(properties.getListener().getConsumers());
+        if (queues.isEmpty()) {
+            return;
+        }
+
+        if (admissionControl.isOverloaded()) {
+            log.debug("Inbox is over its high-water mark, leaving messages on the queue");
+            return;
+        }
+
+        if (!properties.getListener().isExclusivePollLock()) {
+            drainConcurrently(queues);
+            return;
+        }
 
-    @Scheduled(fixedDelay = 1000) // Polls every 1 second
-    public void pollMessages() {
         Lock lock = lockRegistry.obtain(LOCK_KEY);
 
         try {
@@ -42,16 +157,7 @@ public class TaskMessageListener {
             }
 
             log.debug("Acquired lock for polling messages");
-
-            while (true) {
-                Message message = jmsTemplate.receive("task-queue");
-                if (message == null) {
-                    break; // No more messages in queue
-                }
-
-                processMessage(message);
-            }
-
+            drainConcurrently(queues);
         } catch (Exception e) {
             log.error("Error during message polling", e);
         } finally {
@@ -64,21 +170,254 @@ public class TaskMessageListener {
         }
     }
 
-    private void processMessage(Message message) {
+    /**
+     * The push container cannot change its selector, so it is stopped as a whole while the inbox is over its
+     * global high-water mark. Per-partition marks only hold back the poll drains.
+     */
+    @EventListener
+    public void onAdmissionChanged(AdmissionChangedEvent event) {
+        if (properties.getListener().getMode() != ListenerMode.PUSH) {
+            return;
+        }
+        for (String listenerId : List.of(LISTENER_ID, NODE_LISTENER_ID)) {
+            MessageListenerContainer container = jmsListenerEndpointRegistry.getListenerContainer(listenerId);
+            if (event.overloaded() && container.isRunning()) {
+                log.info("Inbox is over its high-water mark, stopping listener container {}", listenerId);
+                container.stop();
+            } else if (!event.overloaded() && !container.isRunning()) {
+                log.info("Inbox is below its high-water mark, starting listener container {}", listenerId);
+                container.start();
+            }
+        }
+    }
+
+    /**
+     * Runs the given number of drains of each queue in parallel and waits for all of them to empty their
+     * queue. Producers tag every message with a JMSXGroupID derived from its partition key, so the broker hands
+     * all messages of a partition to one consumer at a time, across all nodes, and per-partition order is kept
+     * without a cluster-wide poll lock.
+     * <p>
+     * Each drain has a consumer of its own that stays open from one poll to the next, on one connection, since
+     * the broker moves the message groups of a consumer that closes to whichever consumer asks next. A slot is
+     * only opened again after an error, or with a new selector when the held back partitions change.
+     */
+    private void drainConcurrently(Map<String, Integer> queues) {
+        Set<Integer> heldBack = admissionControl.overloadedPartitions();
+        List<DrainSlot> drains;
         try {
-            String messageId = message.getJMSMessageID();
-            TextMessage textMessage = ((jakarta.jms.TextMessage) message);
-            // parse text message as JSON
-            log.info("Processing message: {} with payload: {}", messageId, textMessage.getText());
-            // convert JSON to TaskMessage using Jackson
-            var payload = objectMapper.readValue(textMessage.getText(), TaskMessage.class);
+            drains = openSlots(queues, excluding(heldBack));
+        } catch (JMSException e) {
+            log.error("Error opening queue consumers", e);
+            closeConnection();
+            return;
+        }
+        try (var executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofPlatform().name("task-queue-consumer-", 1).factory())) {
+            for (DrainSlot slot : drains) {
+                executor.execute(() -> {
+                    try {
+                        drain(slot, heldBack);
+                    } catch (Exception e) {
+                        log.error("Error during message polling", e);
+                        slot.close();
+                    }
+                });
+            }
+        }
+    }
 
-            log.info("Processing message: {} with payload: {}", messageId, payload);
+    /**
+     * Keeps the given number of consumers open on each queue and closes those of queues no longer consumed.
+     */
+    private List<DrainSlot> openSlots(Map<String, Integer> queues, String selector) throws JMSException {
+        slots.entrySet().removeIf(entry -> {
+            if (queues.containsKey(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().forEach(DrainSlot::close);
+            return true;
+        });
+        if (connection == null) {
+            connection = connectionFactory.createConnection();
+            connection.start();
+        }
 
-            taskInboxWriter.writeMessage(messageId, payload);
-            taskInboxReader.checkForNewTasks();
+        List<DrainSlot> drains = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : queues.entrySet()) {
+            List<DrainSlot> queueSlots = slots.computeIfAbsent(entry.getKey(), queue -> new ArrayList<>());
+            while (queueSlots.size() > entry.getValue()) {
+                queueSlots.remove(queueSlots.size() - 1).close();
+            }
+            for (int i = 0; i < entry.getValue(); i++) {
+                DrainSlot slot = i < queueSlots.size() ? queueSlots.get(i) : null;
+                if (slot == null || slot.closed || !Objects.equals(slot.selector, selector)) {
+                    if (slot != null) {
+                        slot.close();
+                    }
+                    slot = new DrainSlot(connection, entry.getKey(), selector);
+                    if (i < queueSlots.size()) {
+                        queueSlots.set(i, slot);
+                    } else {
+                        queueSlots.add(slot);
+                    }
+                }
+                drains.add(slot);
+            }
+        }
+        return drains;
+    }
+
+    private void closeConnection() {
+        slots.values().forEach(queueSlots -> queueSlots.forEach(DrainSlot::close));
+        slots.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                log.warn("Error closing queue connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * Drains the slot's queue on its transacted session until it stays empty for one batch wait. Each batch
+     * is written to the inbox in one database transaction and the JMS session is committed only after that,
+     * so a failure before the database commit leaves the whole batch on the queue for redelivery.
+     * <p>
+     * Message groups of partitions over their high-water mark are left on the queue with the slot's selector.
+     * The drain ends when the admission state changes, so the next one picks up a fresh selector.
+     */
+    private void drain(DrainSlot slot, Set<Integer> heldBack) throws JMSException {
+        boolean batchMode = properties.getListener().getMode() == ListenerMode.BATCH;
+        int batchSize = batchMode ? properties.getListener().getBatchSize() : 1;
+        Session session = slot.session;
+
+        while (running && !admissionControl.isOverloaded()
+            && admissionControl.overloadedPartitions().equals(heldBack)) {
+            List<Message> batch = receiveBatch(slot.consumer, batchSize);
+            if (batch.isEmpty()) {
+                taskRouter.drained(slot.queue);
+                break; // No more messages in queue
+            }
+            taskMetrics.drainBatch(batch.size());
+
+            List<EnqueuedTasks> written;
+            try {
+                if (batchMode) {
+                    written = taskInboxWriter.writeMessages(toPayloads(batch));
+                    log.info("Drained batch of {} messages, {} new", batch.size(),
+                        written.stream().mapToInt(enqueued -> enqueued.tasks().size()).sum());
+                } else {
+                    written = processMessage(batch.get(0)).stream().toList();
+                }
+                session.commit();
+            } catch (Exception e) {
+                session.rollback();
+                throw e;
+            }
+            taskInboxReader.newTasksWritten(written);
+        }
+    }
+
+    /**
+     * Selector skipping the message groups of the given partitions, {@code null} to receive everything.
+     */
+    private static String excluding(Set<Integer> partitionKeys) {
+        if (partitionKeys.isEmpty()) {
+            return null;
+        }
+        return partitionKeys.stream()
+            .map(partitionKey -> "'P-" + partitionKey + "'")
+            .collect(Collectors.joining(", ", "JMSXGroupID NOT IN (", ")"));
+    }
+
+    private List<Message> receiveBatch(MessageConsumer consumer, int batchSize) throws JMSException {
+        long deadline = System.currentTimeMillis() + properties.getListener().getBatchWait().toMillis();
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            Message message = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+            if (message == null) {
+                break;
+            }
+            batch.add(message);
+        }
+        return batch;
+    }
+
+    private Map<String, TaskMessage> toPayloads(List<Message> batch) {
+        Map<String, TaskMessage> payloads = new LinkedHashMap<>();
+        for (Message message : batch) {
+            try {
+                payloads.put(message.getJMSMessageID(), readPayload(message));
+            } catch (Exception e) {
+                log.error("Error reading message, dropping it from the batch", e);
+            }
+        }
+        return payloads;
+    }
+
+    /**
+     * Reads the task of a message. A message that cannot be read, or lacks its partition key or work number,
+     * can never be written to the inbox, so it is dropped rather than rolling back the batch it came in.
+     */
+    private TaskMessage readPayload(Message message) throws JMSException {
+        // the codec header says whether the payload is JSON or binary
+        TaskMessage payload = taskMessageConverter.fromMessage(message);
+        if (payload == null || payload.getPartitionKey() == null || payload.getWorkNumber() == null) {
+            throw new IllegalArgumentException("partitionKey and workNumber are required");
+        }
+        return payload;
+    }
+
+    private Optional<EnqueuedTasks> processMessage(Message message) throws JMSException {
+        String messageId = message.getJMSMessageID();
+        TaskMessage payload;
+        try {
+            payload = readPayload(message);
         } catch (Exception e) {
-            log.error("Error processing message", e);
+            log.error("Error reading message {}, dropping it", messageId, e);
+            return Optional.empty();
+        }
+
+        log.info("Processing message: {} with payload: {}", messageId, payload);
+        return taskInboxWriter.writeMessage(messageId, payload);
+    }
+
+    /**
+     * A transacted session with one consumer on a queue, kept open across polls.
+     */
+    private static final class DrainSlot {
+        private final String queue;
+        private final String selector;
+        private final Session session;
+        private final MessageConsumer consumer;
+        private volatile boolean closed;
+
+        private DrainSlot(Connection connection, String queue, String selector) throws JMSException {
+            this.queue = queue;
+            this.selector = selector;
+            this.session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            try {
+                this.consumer = session.createConsumer(session.createQueue(queue), selector);
+            } catch (JMSException e) {
+                session.close();
+                throw e;
+            }
+        }
+
+        /** Closing the session gives back the messages it has received but not committed. */
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                session.close();
+            } catch (JMSException e) {
+                log.warn("Error closing consumer of {}", queue, e);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,306 @@
+package uk.anbu.poc.stickyloadbalancer.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.jdbc.lock.LockRepository;
+import org.springframework.integration.support.locks.RenewableLockRegistry;
+import org.springframework.integration.util.UUIDConverter;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link RenewableLockRegistry} over the same {@code int_lock} table as the {@code JdbcLockRegistry}, but
+ * treating a database row as a node-wide lease rather than a per-lock-call round-trip. Threads of this
+ * node are serialised on an in-memory lock per key; the database is only asked when the node does not
+ * already hold a valid lease for the key. Unlocking keeps the lease, and a background job renews all held
+ * leases with one statement before the time-to-live runs out and gives back leases nobody used for
+ * {@code idleRelease}. The job runs on a thread of its own, so no other scheduled work can hold renewals up
+ * until a lease expires under a lock that is still in use.
+ * <p>
+ * This does not wrap the {@code JdbcLockRegistry} itself: its locks are bound to the thread that took
+ * them, so they can neither be released lazily nor renewed from a background thread.
+ */
+@Slf4j
+public class LeaseCachingLockRegistry implements RenewableLockRegistry, InitializingBean, DisposableBean {
+
+    private static final String RENEW_SQL = "UPDATE INT_LOCK SET CREATED_DATE = :now "
+        + "WHERE REGION = :region AND CLIENT_ID = :clientId AND LOCK_KEY IN (:keys)";
+    private static final String HELD_SQL = "SELECT LOCK_KEY FROM INT_LOCK "
+        + "WHERE REGION = :region AND CLIENT_ID = :clientId AND LOCK_KEY IN (:keys)";
+    private static final Duration IDLE_BETWEEN_TRIES = Duration.ofMillis(100);
+
+    private final LockRepository lockRepository;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final String region;
+    private final String clientId;
+    private final Duration timeToLive;
+    private final Duration renewInterval;
+    private final Duration idleRelease;
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private ScheduledExecutorService renewals;
+
+    public LeaseCachingLockRegistry(LockRepository lockRepository, NamedParameterJdbcTemplate jdbcTemplate,
+                                    String region, String clientId, Duration timeToLive, Duration renewInterval,
+                                    Duration idleRelease) {
+        this.lockRepository = lockRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.region = region;
+        this.clientId = clientId;
+        this.timeToLive = timeToLive;
+        this.renewInterval = renewInterval;
+        this.idleRelease = idleRelease;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        renewals = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("lock-lease-renewal").daemon().factory());
+        renewals.scheduleWithFixedDelay(() -> {
+            try {
+                maintainLeases();
+            } catch (Exception e) {
+                log.error("Error renewing lock leases", e);
+            }
+        }, renewInterval.toMillis(), renewInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Lock obtain(Object lockKey) {
+        String path = UUIDConverter.getUUID(lockKey).toString();
+        return new LeaseLock(leases.computeIfAbsent(path, Lease::new));
+    }
+
+    /**
+     * Fails if the lease behind a lock held by the calling thread has been lost. Leases are renewed in
+     * {@link #maintainLeases()}; one that has used up half its time-to-live regardless is renewed here as well.
+     */
+    @Override
+    public void renewLock(Object lockKey) {
+        Lease lease = leases.get(UUIDConverter.getUUID(lockKey).toString());
+        if (lease == null || !lease.local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("The current thread doesn't hold the lock for " + lockKey);
+        }
+        if (!lease.isValid()) {
+            throw new IllegalStateException("The lease for " + lockKey + " has been lost");
+        }
+        long now = System.currentTimeMillis();
+        if (lease.expiresAt - now < timeToLive.toMillis() / 2) {
+            renew(Set.of(lease.path), now);
+            if (!lease.isValid()) {
+                throw new IllegalStateException("The lease for " + lockKey + " has been lost");
+            }
+        }
+    }
+
+    /**
+     * Gives the lease for the key back right away, e.g. when its partition moves to another node. Does
+     * nothing while a thread of this node still holds the lock.
+     */
+    public void releaseLease(Object lockKey) {
+        Lease lease = leases.get(UUIDConverter.getUUID(lockKey).toString());
+        if (lease != null && lease.isValid() && lease.local.tryLock()) {
+            try {
+                release(lease);
+            } finally {
+                lease.local.unlock();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Renews every lease this node holds with one batched update and releases the ones that have been idle
+     * for longer than {@code idleRelease}. A lease whose row no longer belongs to this node is dropped, so
+     * the next lock attempt goes back to the database.
+     */
+    public void maintainLeases() {
+        long now = System.currentTimeMillis();
+        Set<String> toRenew = new HashSet<>();
+        for (Lease lease : leases.values()) {
+            if (!lease.isValid()) {
+                continue;
+            }
+            if (now - lease.lastUsed >= idleRelease.toMillis() && lease.local.tryLock()) {
+                try {
+                    release(lease);
+                } finally {
+                    lease.local.unlock();
+                }
+            } else {
+                toRenew.add(lease.path);
+            }
+        }
+
+        if (!toRenew.isEmpty()) {
+            renew(toRenew, now);
+        }
+        log.debug("Lock leases: {} held, {} hits, {} misses", toRenew.size(), hits.get(), misses.get());
+    }
+
+    @Override
+    public void destroy() {
+        if (renewals != null) {
+            renewals.shutdownNow();
+        }
+        leases.values().stream().filter(Lease::isValid).forEach(this::release);
+    }
+
+    private void renew(Set<String> paths, long now) {
+        var params = new MapSqlParameterSource()
+            .addValue("now", Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC)))
+            .addValue("region", region)
+            .addValue("clientId", clientId)
+            .addValue("keys", paths);
+        int renewed = jdbcTemplate.update(RENEW_SQL, params);
+        if (renewed == paths.size()) {
+            paths.forEach(path -> leases.get(path).expiresAt = now + timeToLive.toMillis());
+            return;
+        }
+
+        List<String> stillHeld = jdbcTemplate.queryForList(HELD_SQL, params, String.class);
+        for (String path : paths) {
+            Lease lease = leases.get(path);
+            if (stillHeld.contains(path)) {
+                lease.expiresAt = now + timeToLive.toMillis();
+            } else {
+                log.warn("Lost lease {}", path);
+                lease.expiresAt = 0;
+            }
+        }
+    }
+
+    private void release(Lease lease) {
+        lease.expiresAt = 0;
+        try {
+            lockRepository.delete(lease.path);
+        } catch (Exception e) {
+            log.warn("Error releasing lease {}", lease.path, e);
+        }
+    }
+
+    private static final class Lease {
+        private final String path;
+        private final ReentrantLock local = new ReentrantLock();
+        private volatile long expiresAt;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Lease(String path) {
+            this.path = path;
+        }
+
+        boolean isValid() {
+            return expiresAt > System.currentTimeMillis();
+        }
+    }
+
+    private final class LeaseLock implements Lock {
+        private final Lease lease;
+
+        LeaseLock(Lease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public boolean tryLock() {
+            try {
+                return tryLock(0, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + unit.toMillis(time);
+            if (!lease.local.tryLock(time, unit)) {
+                return false;
+            }
+
+            lease.lastUsed = System.currentTimeMillis();
+            if (lease.isValid()) {
+                hits.incrementAndGet();
+                return true;
+            }
+
+            misses.incrementAndGet();
+            try {
+                while (true) {
+                    long acquiredAt = System.currentTimeMillis();
+                    if (lockRepository.acquire(lease.path)) {
+                        lease.expiresAt = acquiredAt + timeToLive.toMillis();
+                        return true;
+                    }
+                    if (System.currentTimeMillis() + IDLE_BETWEEN_TRIES.toMillis() > deadline) {
+                        lease.local.unlock();
+                        return false;
+                    }
+                    Thread.sleep(IDLE_BETWEEN_TRIES.toMillis());
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                lease.local.unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void lock() {
+            try {
+                lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for lease " + lease.path, e);
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            while (!tryLock(IDLE_BETWEEN_TRIES.toMillis(), TimeUnit.MILLISECONDS)) {
+                // keep trying until the lease is free
+            }
+        }
+
+        @Override
+        public void unlock() {
+            if (!lease.local.isHeldByCurrentThread()) {
+                throw new IllegalMonitorStateException("The current thread doesn't own lease " + lease.path);
+            }
+            lease.lastUsed = System.currentTimeMillis();
+            lease.local.unlock();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Conditions are not supported");
+        }
+
+    }
+}
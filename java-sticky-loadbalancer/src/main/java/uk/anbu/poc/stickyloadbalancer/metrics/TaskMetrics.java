@@ -0,0 +1,128 @@
+package uk.anbu.poc.stickyloadbalancer.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+import uk.anbu.poc.stickyloadbalancer.lock.LeaseCachingLockRegistry;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
+import uk.anbu.poc.stickyloadbalancer.service.RecentMessageIds;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Micrometer meters for the inbox pipeline, exposed through the Actuator {@code prometheus} endpoint.
+ * Inbox depth per partition is read from {@code partition_state} on a schedule rather than counted in
+ * {@code task_inbox}, so scraping never scans the inbox.
+ */
+@Slf4j
+@Component
+public class TaskMetrics {
+
+    private final PartitionStateRepository partitionStateRepository;
+    private final MultiGauge inboxDepth;
+    private final Timer processingTime;
+    private final Timer lag;
+    private final Timer lockAcquired;
+    private final Timer lockRefused;
+    private final DistributionSummary drainBatchSize;
+    private final Counter handedOff;
+    private final Counter readBack;
+
+    public TaskMetrics(MeterRegistry meterRegistry, PartitionStateRepository partitionStateRepository,
+                       LockRegistry lockRegistry, RecentMessageIds recentMessageIds) {
+        this.partitionStateRepository = partitionStateRepository;
+        this.inboxDepth = MultiGauge.builder("sticky_lb.inbox.depth")
+            .description("Tasks waiting in task_inbox per partition")
+            .register(meterRegistry);
+        this.processingTime = Timer.builder("sticky_lb.task.processing")
+            .description("Time spent processing one task")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.lag = Timer.builder("sticky_lb.task.lag")
+            .description("Time from a task being written to the inbox until it is done")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.lockAcquired = lockTimer(meterRegistry, "acquired");
+        this.lockRefused = lockTimer(meterRegistry, "refused");
+        this.drainBatchSize = DistributionSummary.builder("sticky_lb.listener.batch.size")
+            .description("Messages received per JMS drain batch")
+            .baseUnit("messages")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.handedOff = handOffCounter(meterRegistry, "taken");
+        this.readBack = handOffCounter(meterRegistry, "read-back");
+        FunctionCounter.builder("sticky_lb.dedup.cache.hits", recentMessageIds, RecentMessageIds::getHits)
+            .description("Redeliveries dropped from the node-local message id cache without a database lookup")
+            .register(meterRegistry);
+
+        if (lockRegistry instanceof LeaseCachingLockRegistry leaseCachingLockRegistry) {
+            FunctionCounter.builder("sticky_lb.lock.lease", leaseCachingLockRegistry, LeaseCachingLockRegistry::getHits)
+                .description("Lock calls served from a lease this node already held")
+                .tag("result", "hit")
+                .register(meterRegistry);
+            FunctionCounter.builder("sticky_lb.lock.lease", leaseCachingLockRegistry, LeaseCachingLockRegistry::getMisses)
+                .description("Lock calls that had to acquire the lease in the database")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        }
+    }
+
+    private static Timer lockTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("sticky_lb.lock.acquire")
+            .description("Time waited for a partition lock")
+            .tag("result", result)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private static Counter handOffCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("sticky_lb.dispatcher.hand_off")
+            .description("Handed-off tasks a worker processed from memory, or dropped to read them from the inbox")
+            .tag("result", result)
+            .baseUnit("tasks")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Records the processing time of a finished task and its lag since it was written to the inbox.
+     */
+    public void taskDone(TaskInbox task, long processingNanos) {
+        processingTime.record(Duration.ofNanos(processingNanos));
+        lag.record(Duration.between(task.getCreatedAt(), LocalDateTime.now(ZoneOffset.UTC)));
+    }
+
+    public void lockWait(long waitNanos, boolean acquired) {
+        (acquired ? lockAcquired : lockRefused).record(Duration.ofNanos(waitNanos));
+    }
+
+    public void drainBatch(int size) {
+        drainBatchSize.record(size);
+    }
+
+    public void handOff(int tasks, boolean taken) {
+        (taken ? handedOff : readBack).increment(tasks);
+    }
+
+    @Scheduled(fixedDelayString = "${sticky-lb.metrics.depth-refresh:10s}")
+    public void refreshInboxDepth() {
+        try {
+            inboxDepth.register(partitionStateRepository.findAll().stream()
+                .map(state -> MultiGauge.Row.of(Tags.of("partition", String.valueOf(state.getPartitionKey())),
+                    state.getPendingCount()))
+                .toList(), true);
+        } catch (Exception e) {
+            log.warn("Could not refresh inbox depth gauges", e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package uk.anbu.poc.stickyloadbalancer.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one batch of a bulk publish. Messages are numbered from 1 in the order of the request body. A
+ * failed batch was rolled back: nothing from {@code firstMessage} on was sent, and {@code lastMessage} is the
+ * message the batch failed on.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchAck(int batch, long firstMessage, long lastMessage, boolean committed, String error) {
+
+    public static BatchAck committed(int batch, long firstMessage, long lastMessage) {
+        return new BatchAck(batch, firstMessage, lastMessage, true, null);
+    }
+
+    public static BatchAck failed(int batch, long firstMessage, long failedMessage, String error) {
+        return new BatchAck(batch, firstMessage, failedMessage, false, error);
+    }
+}
@@ -0,0 +1,189 @@
+package uk.anbu.poc.stickyloadbalancer.ownership;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.jdbc.lock.LockRepository;
+import org.springframework.integration.util.UUIDConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.LockConfig;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks the live nodes of the cluster and places partitions on them with a {@link ConsistentHashRing}.
+ * Every node heartbeats a membership row in the {@code int_lock} table, in the same region as the
+ * partition locks, and a node counts as live while its row is younger than {@code memberTimeout}. The heartbeat
+ * runs on a thread of its own, so a long-running scheduled job can never make a live node look dead.
+ * <p>
+ * A node deletes its row when it shuts down, after its partitions have been released, so the others
+ * rebalance on their next heartbeat. With {@code reapDeadMembers} on, the locks of a node whose row has gone
+ * stale are deleted as well, so its partitions do not wait for the lock time-to-live.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ClusterMembership implements SmartLifecycle {
+
+    /** Stops after the partition workers have released their locks. */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private static final String MEMBERS_SQL = "SELECT LOCK_KEY, CLIENT_ID, CREATED_DATE FROM INT_LOCK WHERE REGION = ?";
+    private static final String REAP_SQL = "DELETE FROM INT_LOCK WHERE REGION = ? AND CLIENT_ID = ? "
+        + "AND NOT EXISTS (SELECT 1 FROM INT_LOCK WHERE REGION = ? AND LOCK_KEY = ? AND CREATED_DATE >= ?)";
+
+    private final LockRepository lockRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final StickyLoadBalancerProperties properties;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile ConsistentHashRing ring = ConsistentHashRing.empty();
+    private volatile boolean running;
+    private ScheduledExecutorService heartbeats;
+
+    public void heartbeat() {
+        if (!running) {
+            return;
+        }
+
+        try {
+            if (!lockRepository.acquire(memberKey(properties.getNodeId()))) {
+                log.warn("Could not renew membership of node {}", properties.getNodeId());
+            }
+            var cutoff = LocalDateTime.now(ZoneOffset.UTC).minus(properties.getOwnership().getMemberTimeout());
+            Map<String, LocalDateTime> heartbeats = readHeartbeats();
+            if (properties.getOwnership().isReapDeadMembers()) {
+                heartbeats.forEach((clientId, lastHeartbeat) -> {
+                    if (lastHeartbeat.isBefore(cutoff)) {
+                        reap(clientId, cutoff);
+                    }
+                });
+            }
+            updateRing(heartbeats.entrySet().stream()
+                .filter(heartbeat -> !heartbeat.getValue().isBefore(cutoff))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet()));
+        } catch (Exception e) {
+            log.error("Error during membership heartbeat", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (properties.getOwnership().isEnabled()) {
+            heartbeats = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("cluster-heartbeat").daemon().factory());
+            heartbeats.scheduleWithFixedDelay(this::heartbeat, 0,
+                properties.getOwnership().getHeartbeatInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Leaves the cluster by deleting this node's membership row.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        if (heartbeats == null) {
+            return;
+        }
+        heartbeats.shutdown();
+        try {
+            heartbeats.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        heartbeats = null;
+        try {
+            lockRepository.delete(memberKey(properties.getNodeId()));
+            log.info("Node {} left the cluster", properties.getNodeId());
+        } catch (Exception e) {
+            log.warn("Could not remove membership of node {}", properties.getNodeId(), e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Whether this node is the ring owner of the partition. With ownership disabled every node may take
+     * every partition, and the partition lock alone decides.
+     */
+    public boolean isLocal(int partitionKey) {
+        if (!properties.getOwnership().isEnabled()) {
+            return true;
+        }
+        return ring.ownerOf(partitionKey).map(properties.getNodeId()::equals).orElse(false);
+    }
+
+    public ConsistentHashRing ring() {
+        return ring;
+    }
+
+    /**
+     * Last heartbeat of every node that has a membership row.
+     */
+    private Map<String, LocalDateTime> readHeartbeats() {
+        Map<String, LocalDateTime> heartbeats = new HashMap<>();
+        jdbcTemplate.query(MEMBERS_SQL, rs -> {
+            String clientId = rs.getString("CLIENT_ID");
+            if (memberKey(clientId).equals(rs.getString("LOCK_KEY"))) {
+                heartbeats.put(clientId, rs.getTimestamp("CREATED_DATE").toLocalDateTime());
+            }
+        }, LockConfig.LOCK_REGION);
+        return heartbeats;
+    }
+
+    /**
+     * Deletes every lock of a node whose heartbeat is older than the cutoff, membership row included, unless
+     * it has heartbeated again in the meantime.
+     */
+    private void reap(String clientId, LocalDateTime cutoff) {
+        int released = jdbcTemplate.update(REAP_SQL, LockConfig.LOCK_REGION, clientId,
+            LockConfig.LOCK_REGION, memberKey(clientId), Timestamp.valueOf(cutoff));
+        if (released > 0) {
+            log.warn("Node {} stopped heartbeating, released its {} locks", clientId, released - 1);
+        }
+    }
+
+    private void updateRing(Set<String> members) {
+        if (members.equals(ring.members())) {
+            return;
+        }
+
+        Set<String> joined = new HashSet<>(members);
+        joined.removeAll(ring.members());
+        Set<String> left = new HashSet<>(ring.members());
+        left.removeAll(members);
+        log.info("Cluster membership changed, joined: {}, left: {}, members: {}", joined, left, members);
+
+        ring = new ConsistentHashRing(members, properties.getOwnership().getVirtualNodes());
+        eventPublisher.publishEvent(new OwnershipChangedEvent(Set.copyOf(members)));
+    }
+
+    private static String memberKey(String nodeId) {
+        // same key format the JdbcLockRegistry uses for its locks
+        return UUIDConverter.getUUID("member-" + nodeId).toString();
+    }
+}
@@ -0,0 +1,9 @@
+package uk.anbu.poc.stickyloadbalancer.ownership;
+
+import java.util.Set;
+
+/**
+ * Published when the set of live nodes, and with it the partition placement, has changed.
+ */
+public record OwnershipChangedEvent(Set<String> members) {
+}
@@ -0,0 +1,118 @@
+package uk.anbu.poc.stickyloadbalancer.ownership;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the queue a task is sent to. With routing on, a task goes to the queue of the node that owns its
+ * partition on the ring, so the node that receives it is the one that processes it. Tasks go to the shared
+ * queue, which every node consumes, while the ring is not known yet and for {@code settleTime} after the
+ * membership changed, until every node has seen the change.
+ * <p>
+ * Queues of nodes that left are drained by the survivors until they have been found empty after the settle
+ * time, so tasks sent to a node just before it went away are not stranded. A node's own queue is only found
+ * again under the same node id, so routing needs {@code sticky-lb.node-id} set explicitly and kept across
+ * restarts.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TaskRouter implements InitializingBean {
+
+    public static final String SHARED_QUEUE = "task-queue";
+
+    private final ClusterMembership clusterMembership;
+    private final StickyLoadBalancerProperties properties;
+    private final Environment environment;
+
+    private final Map<String, Long> departedQueues = new ConcurrentHashMap<>();
+    private volatile Set<String> members = Set.of();
+    private volatile long membershipChangedAt = System.nanoTime();
+
+    @Override
+    public void afterPropertiesSet() {
+        if (properties.getRouting().isEnabled() && !environment.containsProperty("sticky-lb.node-id")) {
+            // a random id would leave the tasks routed to this node on a queue no node consumes after a restart
+            throw new IllegalStateException("sticky-lb.routing.enabled needs a stable sticky-lb.node-id");
+        }
+    }
+
+    /**
+     * The queue to send a task of the partition to, the shared queue for a task without a partition key.
+     */
+    public String destinationOf(Integer partitionKey) {
+        if (!properties.getRouting().isEnabled() || partitionKey == null || settling()) {
+            return SHARED_QUEUE;
+        }
+        return clusterMembership.ring().ownerOf(partitionKey).map(TaskRouter::nodeQueue).orElse(SHARED_QUEUE);
+    }
+
+    /** The queue the other nodes send this node's partitions to. */
+    public String localQueue() {
+        return nodeQueue(properties.getNodeId());
+    }
+
+    /**
+     * The queues this node consumes, with the number of consumers for each: its own queue gets the configured
+     * consumers, the shared queue and the queues of departed nodes one each.
+     */
+    public Map<String, Integer> consumedQueues(int consumers) {
+        if (!properties.getRouting().isEnabled()) {
+            return Map.of(SHARED_QUEUE, consumers);
+        }
+        Map<String, Integer> queues = new LinkedHashMap<>();
+        queues.put(localQueue(), consumers);
+        queues.put(SHARED_QUEUE, 1);
+        departedQueues.keySet().forEach(queue -> queues.put(queue, 1));
+        return queues;
+    }
+
+    /** Queues of departed nodes that still have to be drained. */
+    public Set<String> departedQueues() {
+        return Set.copyOf(departedQueues.keySet());
+    }
+
+    /**
+     * Called when a drain found the queue empty. A departed node's queue is no longer consumed once nobody
+     * can still be sending to it.
+     */
+    public void drained(String queue) {
+        departedQueues.computeIfPresent(queue, (key, departedAt) -> {
+            if (System.nanoTime() - departedAt < properties.getRouting().getSettleTime().toNanos()) {
+                return departedAt;
+            }
+            log.info("Drained {}, the queue of a departed node", queue);
+            return null;
+        });
+    }
+
+    @EventListener
+    public void onOwnershipChanged(OwnershipChangedEvent event) {
+        long now = System.nanoTime();
+        Set<String> departed = new HashSet<>(members);
+        departed.removeAll(event.members());
+        departed.forEach(node -> departedQueues.put(nodeQueue(node), now));
+        event.members().forEach(node -> departedQueues.remove(nodeQueue(node)));
+        members = event.members();
+        membershipChangedAt = now;
+    }
+
+    private boolean settling() {
+        return System.nanoTime() - membershipChangedAt < properties.getRouting().getSettleTime().toNanos();
+    }
+
+    private static String nodeQueue(String nodeId) {
+        return SHARED_QUEUE + "." + nodeId;
+    }
+}
@@ -0,0 +1,49 @@
+package uk.anbu.poc.stickyloadbalancer.repository;
+
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import uk.anbu.poc.stickyloadbalancer.entity.PartitionState;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface PartitionStateRepository extends JpaRepository<PartitionState, Integer> {
+
+    @Query("SELECT p.partitionKey FROM PartitionState p WHERE p.pendingCount > 0")
+    List<Integer> findPartitionKeysWithPendingWork();
+
+    /**
+     * Locks the registry rows of the partitions until the end of the transaction, in key order so writers of
+     * overlapping partitions cannot deadlock. Partitions without a row yet are not returned.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM PartitionState p WHERE p.partitionKey IN :partitionKeys ORDER BY p.partitionKey")
+    List<PartitionState> lockForEnqueue(@Param("partitionKeys") Collection<Integer> partitionKeys);
+
+    @Modifying
+    @Query(value = """
+        MERGE INTO partition_state ps
+        USING (VALUES (CAST(:partitionKey AS INT), CAST(:count AS BIGINT), CAST(:lastEnqueuedId AS BIGINT)))
+            AS enqueued(partition_key, cnt, last_id)
+        ON ps.partition_key = enqueued.partition_key
+        WHEN MATCHED THEN UPDATE SET
+            pending_count = ps.pending_count + enqueued.cnt,
+            last_enqueued_id = GREATEST(ps.last_enqueued_id, enqueued.last_id)
+        WHEN NOT MATCHED THEN INSERT (partition_key, pending_count, last_enqueued_id, last_processed_id)
+            VALUES (enqueued.partition_key, enqueued.cnt, enqueued.last_id, 0)
+        """, nativeQuery = true)
+    void recordEnqueued(@Param("partitionKey") int partitionKey,
+                        @Param("count") long count,
+                        @Param("lastEnqueuedId") long lastEnqueuedId);
+
+    @Modifying
+    @Query("UPDATE PartitionState p SET p.pendingCount = p.pendingCount - :count, p.lastProcessedId = :lastProcessedId "
+        + "WHERE p.partitionKey = :partitionKey")
+    void recordProcessed(@Param("partitionKey") int partitionKey,
+                         @Param("count") long count,
+                         @Param("lastProcessedId") long lastProcessedId);
+}
@@ -1,18 +1,47 @@
 package uk.anbu.poc.stickyloadbalancer.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface TaskInboxRepository extends JpaRepository<TaskInbox, Long> {
     Optional<TaskInbox> findByMessageId(String messageId);
 
+    @Query("SELECT t.messageId FROM TaskInbox t WHERE t.messageId IN :messageIds")
+    Set<String> findExistingMessageIds(@Param("messageIds") Collection<String> messageIds);
+
     @Query("SELECT DISTINCT partitionKey FROM TaskInbox")
     List<Integer> findDistinctPartitionKeys();
 
     List<TaskInbox> findByPartitionKeyOrderById(int partitionKey);
 
+    Optional<TaskInbox> findFirstByOrderById();
+
+    List<TaskInbox> findByPartitionKeyAndIdGreaterThanOrderById(int partitionKey, long id, Limit limit);
+
+    Optional<TaskInbox> findFirstByPartitionKeyAndIdGreaterThanOrderById(int partitionKey, long id);
+
+    /**
+     * Deletes up to {@code limit} processed rows of the partition at or below its watermark.
+     *
+     * @return the number of rows deleted
+     */
+    @Modifying
+    @Query(value = """
+        DELETE FROM task_inbox
+        WHERE partition_key = :partitionKey AND id <= :upToId
+        FETCH FIRST :limit ROWS ONLY
+        """, nativeQuery = true)
+    int deleteProcessed(@Param("partitionKey") int partitionKey,
+                        @Param("upToId") long upToId,
+                        @Param("limit") int limit);
+
 }
@@ -0,0 +1,20 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+
+import java.util.List;
+
+/**
+ * Inbox rows of one partition committed together, in id order. {@code previousLastEnqueuedId} is the last id
+ * enqueued for the partition before these rows, read under the registry row lock, so a worker that has
+ * processed up to that id knows there is nothing in between. {@link #UNKNOWN} when the writer did not take
+ * the lock.
+ */
+public record EnqueuedTasks(int partitionKey, long previousLastEnqueuedId, List<TaskInbox> tasks) {
+
+    public static final long UNKNOWN = -1;
+
+    public long lastId() {
+        return tasks.get(tasks.size() - 1).getId();
+    }
+}
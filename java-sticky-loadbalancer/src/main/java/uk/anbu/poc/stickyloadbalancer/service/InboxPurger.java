@@ -0,0 +1,66 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.entity.PartitionState;
+import uk.anbu.poc.stickyloadbalancer.ownership.ClusterMembership;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
+import uk.anbu.poc.stickyloadbalancer.repository.TaskInboxRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deletes processed rows from the inbox when the processor only moves the per-partition watermark. Each node
+ * purges the partitions it owns, in bounded batches so no single transaction holds a large delete.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InboxPurger {
+
+    private final TaskInboxRepository taskInboxRepository;
+    private final PartitionStateRepository partitionStateRepository;
+    private final ClusterMembership clusterMembership;
+    private final TransactionTemplate transactionTemplate;
+    private final StickyLoadBalancerProperties properties;
+
+    private final Map<Integer, Long> purgedUpTo = new ConcurrentHashMap<>();
+
+    @Scheduled(fixedDelayString = "${sticky-lb.processor.purge-interval:5s}")
+    public void purge() {
+        if (!properties.getProcessor().isWatermark()) {
+            return;
+        }
+
+        try {
+            for (PartitionState partition : partitionStateRepository.findAll()) {
+                int partitionKey = partition.getPartitionKey();
+                long watermark = partition.getLastProcessedId();
+                if (watermark > purgedUpTo.getOrDefault(partitionKey, 0L) && clusterMembership.isLocal(partitionKey)) {
+                    long deleted = purge(partitionKey, watermark);
+                    purgedUpTo.put(partitionKey, watermark);
+                    log.debug("Purged {} processed rows of partition {} up to id {}", deleted, partitionKey, watermark);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error purging processed inbox rows", e);
+        }
+    }
+
+    private long purge(int partitionKey, long watermark) {
+        int batchSize = properties.getProcessor().getPurgeBatchSize();
+        long deleted = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status ->
+                taskInboxRepository.deleteProcessed(partitionKey, watermark, batchSize));
+            deleted += batch;
+        } while (batch == batchSize);
+        return deleted;
+    }
+}
@@ -0,0 +1,388 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.integration.support.locks.RenewableLockRegistry;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+import uk.anbu.poc.stickyloadbalancer.lock.LeaseCachingLockRegistry;
+import uk.anbu.poc.stickyloadbalancer.metrics.TaskMetrics;
+import uk.anbu.poc.stickyloadbalancer.ownership.ClusterMembership;
+import uk.anbu.poc.stickyloadbalancer.ownership.OwnershipChangedEvent;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one resident worker per partition this node owns. A worker takes the partition lock once, then
+ * sleeps on an in-memory mailbox and drains the partition whenever a writer signals it, so a new message
+ * costs neither a thread start nor a lock attempt. Partitions placed on other nodes by the
+ * {@link ClusterMembership} ring are ignored; a worker whose partition moves away finishes its current
+ * drain and releases the lock for the new owner. Partitions whose lock is held elsewhere are remembered
+ * and not tried again until {@code ownershipRecheck} has passed.
+ * <p>
+ * With hand-off on, rows this node wrote for a partition it owns are queued in the worker's mailbox and
+ * processed without reading them back, as long as they continue from the last row the worker processed.
+ * <p>
+ * On shutdown the dispatcher stops taking signals once the listeners have stopped, lets every worker finish
+ * the task it is on and waits for the workers to release their partitions, so other nodes can take them over
+ * straight away.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PartitionDispatcher implements MeterBinder, SmartLifecycle {
+
+    /** Stops after the listeners, before the node leaves the cluster. */
+    public static final int PHASE = ClusterMembership.PHASE + 1;
+
+    private final TaskProcessor taskProcessor;
+    private final LockRegistry lockRegistry;
+    private final ClusterMembership clusterMembership;
+    private final StickyLoadBalancerProperties properties;
+    private final TaskMetrics taskMetrics;
+
+    private final Map<Integer, PartitionWorker> workers = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> foreignPartitions = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    public void signal(Collection<Integer> partitionKeys) {
+        partitionKeys.forEach(this::signal);
+    }
+
+    public void signal(int partitionKey) {
+        deliver(partitionKey, null);
+    }
+
+    /**
+     * Passes freshly committed rows to the partition's worker, or just signals it when hand-off is off.
+     */
+    public void handOff(EnqueuedTasks enqueued) {
+        deliver(enqueued.partitionKey(), properties.getDispatcher().isHandOff() ? enqueued : null);
+    }
+
+    private void deliver(int partitionKey, EnqueuedTasks handOff) {
+        if (!running || !clusterMembership.isLocal(partitionKey)) {
+            return;
+        }
+
+        while (true) {
+            PartitionWorker worker = workers.get(partitionKey);
+            if (worker == null) {
+                Long recheckAt = foreignPartitions.get(partitionKey);
+                if (recheckAt != null && recheckAt > System.currentTimeMillis()) {
+                    return; // owned by another node
+                }
+                worker = workers.computeIfAbsent(partitionKey, this::startWorker);
+            }
+            if (worker.offer(handOff)) {
+                return;
+            }
+            // the worker is on its way out, replace it
+            workers.remove(partitionKey, worker);
+        }
+    }
+
+    @EventListener(OwnershipChangedEvent.class)
+    public void onOwnershipChanged() {
+        foreignPartitions.clear();
+        // wake every worker so those whose partition moved away hand it over
+        workers.values().forEach(worker -> worker.offer(null));
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Lets every worker finish its current task, retire what it has done and release its partition, waiting
+     * at most {@code shutdownTimeout} for all of them.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        taskProcessor.stop();
+        long deadline = System.nanoTime() + properties.getDispatcher().getShutdownTimeout().toNanos();
+        workers.values().forEach(worker -> worker.offer(null));
+        for (PartitionWorker worker : workers.values()) {
+            try {
+                if (!worker.awaitTermination(deadline - System.nanoTime())) {
+                    log.warn("Partition {} did not finish its current task in time", worker.partitionKey);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        log.info("Stopped all partition workers");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    public int activeWorkers() {
+        return workers.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("sticky_lb.workers.active", this, PartitionDispatcher::activeWorkers)
+            .description("Resident partition workers on this node")
+            .register(registry);
+    }
+
+    private PartitionWorker startWorker(int partitionKey) {
+        PartitionWorker worker = new PartitionWorker(partitionKey);
+        worker.thread = Thread.ofVirtual().name("P-" + partitionKey).start(worker);
+        return worker;
+    }
+
+    /**
+     * What a worker found in its mailbox: whether it has to read the inbox, and the rows handed to it since.
+     */
+    private record Mail(boolean readInbox, List<EnqueuedTasks> handOffs) {
+    }
+
+    private class PartitionWorker implements Runnable {
+        private final int partitionKey;
+        private final String lockKey;
+        private final ReentrantLock mailboxLock = new ReentrantLock();
+        private final Condition signalled = mailboxLock.newCondition();
+        private boolean pending;
+        private final Deque<EnqueuedTasks> handOffs = new ArrayDeque<>();
+        private int handOffTasks;
+        private boolean closed;
+        private Thread thread;
+        private long lastRenewal;
+
+        PartitionWorker(int partitionKey) {
+            this.partitionKey = partitionKey;
+            this.lockKey = "P-" + partitionKey;
+        }
+
+        /**
+         * @param handOff rows to process from memory, or {@code null} to have the worker read the inbox
+         */
+        boolean offer(EnqueuedTasks handOff) {
+            mailboxLock.lock();
+            try {
+                if (closed) {
+                    return false;
+                }
+                if (handOff == null) {
+                    pending = true;
+                } else if (handOffTasks + handOff.tasks().size() > properties.getDispatcher().getHandOffLimit()) {
+                    // the worker is behind, let it read everything back from the inbox
+                    taskMetrics.handOff(handOffTasks + handOff.tasks().size(), false);
+                    handOffs.clear();
+                    handOffTasks = 0;
+                    pending = true;
+                } else {
+                    handOffs.add(handOff);
+                    handOffTasks += handOff.tasks().size();
+                }
+                signalled.signal();
+                return true;
+            } finally {
+                mailboxLock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            Lock lock = lockRegistry.obtain(lockKey);
+            if (!acquire(lock)) {
+                close();
+                workers.remove(partitionKey, this);
+                return;
+            }
+
+            foreignPartitions.remove(partitionKey);
+            log.info("Acquired partition {}", partitionKey);
+            boolean handedOver = false;
+            try {
+                long lastWork = System.currentTimeMillis();
+                lastRenewal = lastWork;
+                long lastId = 0;
+                Mail mail = new Mail(true, List.of());
+                while (true) {
+                    boolean readInbox = mail.readInbox();
+                    boolean gap = false;
+                    for (EnqueuedTasks handOff : mail.handOffs()) {
+                        List<TaskInbox> unprocessed = unprocessed(handOff, lastId);
+                        if (unprocessed.isEmpty()) {
+                            continue; // already read from the inbox
+                        }
+                        if (gap || !continuesFrom(handOff, lastId)) {
+                            // rows are missing in between, the inbox read covers these as well
+                            taskMetrics.handOff(unprocessed.size(), false);
+                            gap = true;
+                            continue;
+                        }
+                        int processed = taskProcessor.processHandedOff(partitionKey, unprocessed);
+                        if (processed > 0) {
+                            taskMetrics.handOff(processed, true);
+                            lastId = unprocessed.get(processed - 1).getId();
+                            lastWork = System.currentTimeMillis();
+                        }
+                    }
+                    if (readInbox || gap) {
+                        long drainedTo = taskProcessor.drainPartition(partitionKey, this::renewLeaseIfDue);
+                        if (drainedTo > lastId) {
+                            lastId = drainedTo;
+                            lastWork = System.currentTimeMillis();
+                        }
+                    }
+                    if (!running) {
+                        log.info("Shutting down, handing over partition {}", partitionKey);
+                        handedOver = true;
+                        break;
+                    }
+                    if (!clusterMembership.isLocal(partitionKey)) {
+                        log.info("Partition {} moved to another node, handing it over", partitionKey);
+                        handedOver = true;
+                        break;
+                    }
+                    renewLeaseIfDue();
+                    mail = awaitSignal(lastWork);
+                    if (mail == null) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error processing partition {}", partitionKey, e);
+            } finally {
+                close();
+                try {
+                    lock.unlock();
+                    if (handedOver && lockRegistry instanceof LeaseCachingLockRegistry leaseCachingLockRegistry) {
+                        leaseCachingLockRegistry.releaseLease(lockKey);
+                    }
+                    log.info("Released partition {}", partitionKey);
+                } catch (Exception e) {
+                    log.warn("Error releasing lock for partition {}", partitionKey, e);
+                }
+                workers.remove(partitionKey, this);
+            }
+        }
+
+        private boolean acquire(Lock lock) {
+            var dispatcher = properties.getDispatcher();
+            try {
+                long start = System.nanoTime();
+                boolean acquired = lock.tryLock(dispatcher.getLockWait().toMillis(), TimeUnit.MILLISECONDS);
+                taskMetrics.lockWait(System.nanoTime() - start, acquired);
+                if (acquired) {
+                    return true;
+                }
+                log.info("Partition {} is owned by another node", partitionKey);
+                // a partition the ring gives to this node is still being handed over, try again soon
+                var recheck = properties.getOwnership().isEnabled()
+                    ? dispatcher.getIdlePoll() : dispatcher.getOwnershipRecheck();
+                foreignPartitions.put(partitionKey, System.currentTimeMillis() + recheck.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * A hand-off can be processed from memory only if no other row of the partition was enqueued between
+         * the last row this worker processed and the hand-off's first row.
+         */
+        private static boolean continuesFrom(EnqueuedTasks handOff, long lastId) {
+            return handOff.previousLastEnqueuedId() != EnqueuedTasks.UNKNOWN
+                && handOff.previousLastEnqueuedId() <= lastId;
+        }
+
+        /**
+         * The rows of the hand-off that an inbox read has not already processed.
+         */
+        private static List<TaskInbox> unprocessed(EnqueuedTasks handOff, long lastId) {
+            return handOff.tasks().stream().filter(task -> task.getId() > lastId).toList();
+        }
+
+        /**
+         * Waits for the next signal or hand-off, or for the idle poll interval so rows written by other
+         * nodes are picked up too. Returns {@code null} and closes the mailbox once the partition has been
+         * idle for longer than the idle timeout.
+         */
+        private Mail awaitSignal(long lastWork) throws InterruptedException {
+            var dispatcher = properties.getDispatcher();
+            mailboxLock.lock();
+            try {
+                if (!pending && handOffs.isEmpty()) {
+                    signalled.await(dispatcher.getIdlePoll().toMillis(), TimeUnit.MILLISECONDS);
+                    if (!pending && handOffs.isEmpty()) {
+                        if (System.currentTimeMillis() - lastWork >= dispatcher.getIdleTimeout().toMillis()) {
+                            closed = true;
+                            return null;
+                        }
+                        pending = true; // idle poll
+                    }
+                }
+                Mail mail = new Mail(pending, List.copyOf(handOffs));
+                pending = false;
+                handOffs.clear();
+                handOffTasks = 0;
+                return mail;
+            } finally {
+                mailboxLock.unlock();
+            }
+        }
+
+        boolean awaitTermination(long nanos) throws InterruptedException {
+            return thread.join(Duration.ofNanos(Math.max(nanos, 0)));
+        }
+
+        /**
+         * Renews the partition lock every {@code leaseRenewInterval}, between drains and between the pages of
+         * a drain, so a partition that never runs out of work keeps its lock.
+         */
+        private void renewLeaseIfDue() {
+            var renewInterval = properties.getDispatcher().getLeaseRenewInterval();
+            if (System.currentTimeMillis() - lastRenewal < renewInterval.toMillis()) {
+                return;
+            }
+            if (lockRegistry instanceof RenewableLockRegistry renewableLockRegistry) {
+                renewableLockRegistry.renewLock(lockKey);
+            }
+            lastRenewal = System.currentTimeMillis();
+        }
+
+        private void close() {
+            mailboxLock.lock();
+            try {
+                closed = true;
+            } finally {
+                mailboxLock.unlock();
+            }
+        }
+    }
+}
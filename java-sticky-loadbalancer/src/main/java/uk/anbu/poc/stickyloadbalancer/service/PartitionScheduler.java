@@ -0,0 +1,267 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.entity.PartitionState;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Decides when a partition worker may go to the database. With {@code limitConcurrency} on, at most as many
+ * inbox reads and retires run at once as the connection pool has connections to spare. Tasks themselves run
+ * outside the turn, they do not hold a connection.
+ * <p>
+ * A free connection goes to the waiting partition that is furthest behind its share, by stride scheduling:
+ * every turn moves a partition's pass on by the inverse of its weight, and the lowest pass goes next. The
+ * weight is one plus the pages of backlog the partition has in {@code partition_state}, refreshed every
+ * {@code backlogRefresh}, so a partition with a long backlog gets proportionally more turns than one that is
+ * keeping up, while every waiting partition still gets its turn. A partition that was idle starts from the
+ * current pass rather than cashing in the turns it did not take.
+ * <p>
+ * Tasks processed per partition are counted so partitions taking a large share of the node's throughput can
+ * be reported.
+ */
+@Slf4j
+@Component
+public class PartitionScheduler implements MeterBinder {
+
+    /** Hikari's default, used when the data source does not say. */
+    private static final int DEFAULT_POOL_SIZE = 10;
+
+    private final StickyLoadBalancerProperties properties;
+    private final PartitionStateRepository partitionStateRepository;
+    private final Map<Integer, LongAdder> processed = new ConcurrentHashMap<>();
+    private volatile Map<Integer, Double> hotPartitions = Map.of();
+    private volatile Map<Integer, Long> backlog = Map.of();
+    private Timer permitWait;
+    private MultiGauge hotPartitionShare;
+
+    private final ReentrantLock turns = new ReentrantLock();
+    /** Guarded by {@code turns}. */
+    private int available;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final Map<Integer, Double> passes = new HashMap<>();
+    private double virtualTime;
+
+    public PartitionScheduler(StickyLoadBalancerProperties properties, DataSource dataSource,
+                              PartitionStateRepository partitionStateRepository) {
+        this.properties = properties;
+        this.partitionStateRepository = partitionStateRepository;
+        int poolSize = dataSource instanceof HikariDataSource hikariDataSource
+            ? hikariDataSource.getMaximumPoolSize()
+            : DEFAULT_POOL_SIZE;
+        this.available = Math.max(1, poolSize - properties.getDispatcher().getReservedConnections());
+        if (properties.getDispatcher().isLimitConcurrency()) {
+            log.info("Running at most {} inbox reads and retires at a time (pool size {})", available, poolSize);
+        }
+    }
+
+    /**
+     * Runs one database call for the partition once it is the partition's turn.
+     */
+    public <T> T run(int partitionKey, Supplier<T> call) {
+        if (!properties.getDispatcher().isLimitConcurrency()) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        acquire(partitionKey);
+        if (permitWait != null) {
+            permitWait.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+        try {
+            return call.get();
+        } finally {
+            release();
+        }
+    }
+
+    public void run(int partitionKey, Runnable call) {
+        run(partitionKey, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private void acquire(int partitionKey) {
+        turns.lock();
+        try {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                charge(partitionKey);
+                return;
+            }
+            Waiter waiter = new Waiter(partitionKey, turns.newCondition());
+            waiters.add(waiter);
+            while (!waiter.granted) {
+                waiter.ready.awaitUninterruptibly();
+            }
+        } finally {
+            turns.unlock();
+        }
+    }
+
+    /**
+     * Hands the connection to the waiting partition with the lowest pass, the one that came first among equals.
+     */
+    private void release() {
+        turns.lock();
+        try {
+            Waiter next = null;
+            double nextPass = Double.MAX_VALUE;
+            for (Waiter waiter : waiters) {
+                double pass = passes.getOrDefault(waiter.partitionKey, virtualTime);
+                if (pass < nextPass) {
+                    next = waiter;
+                    nextPass = pass;
+                }
+            }
+            if (next == null) {
+                available++;
+                return;
+            }
+            waiters.remove(next);
+            charge(next.partitionKey);
+            next.granted = true;
+            next.ready.signal();
+        } finally {
+            turns.unlock();
+        }
+    }
+
+    private void charge(int partitionKey) {
+        double pass = Math.max(passes.getOrDefault(partitionKey, virtualTime), virtualTime);
+        virtualTime = pass;
+        long pages = backlog.getOrDefault(partitionKey, 0L) / properties.getProcessor().getPageSize();
+        passes.put(partitionKey, pass + 1.0 / (1 + pages));
+    }
+
+    /**
+     * Reads the pending rows per partition that weight the turns.
+     */
+    @Scheduled(fixedDelayString = "${sticky-lb.dispatcher.backlog-refresh:1s}")
+    public void refreshBacklog() {
+        if (!properties.getDispatcher().isLimitConcurrency()) {
+            return;
+        }
+        try {
+            backlog = partitionStateRepository.findAll().stream()
+                .filter(state -> state.getPendingCount() > 0)
+                .collect(Collectors.toUnmodifiableMap(PartitionState::getPartitionKey,
+                    PartitionState::getPendingCount));
+        } catch (Exception e) {
+            log.warn("Could not refresh the partition backlog", e);
+        }
+        turns.lock();
+        try {
+            // partitions at or behind the current pass start from it anyway
+            passes.values().removeIf(pass -> pass <= virtualTime);
+        } finally {
+            turns.unlock();
+        }
+    }
+
+    private int availableTurns() {
+        turns.lock();
+        try {
+            return available;
+        } finally {
+            turns.unlock();
+        }
+    }
+
+    public void taskDone(int partitionKey) {
+        processed.computeIfAbsent(partitionKey, key -> new LongAdder()).increment();
+    }
+
+    public Map<Integer, Double> hotPartitions() {
+        return hotPartitions;
+    }
+
+    /**
+     * Compares the partitions' throughput over the last window. A partition is hot when it took at least
+     * {@code hotPartitionShare} of the tasks while other partitions had work too.
+     */
+    @Scheduled(fixedDelayString = "${sticky-lb.dispatcher.hot-partition-window:30s}")
+    public void detectHotPartitions() {
+        Map<Integer, Long> window = new HashMap<>();
+        processed.forEach((partitionKey, count) -> {
+            long tasks = count.sumThenReset();
+            if (tasks > 0) {
+                window.put(partitionKey, tasks);
+            }
+        });
+        processed.keySet().retainAll(window.keySet());
+
+        long total = window.values().stream().mapToLong(Long::longValue).sum();
+        Map<Integer, Double> hot = new HashMap<>();
+        if (window.size() > 1) {
+            window.forEach((partitionKey, tasks) -> {
+                double share = (double) tasks / total;
+                if (share >= properties.getDispatcher().getHotPartitionShare()) {
+                    hot.put(partitionKey, share);
+                }
+            });
+        }
+
+        if (!hot.keySet().equals(hotPartitions.keySet())) {
+            if (hot.isEmpty()) {
+                log.info("No hot partitions any more");
+            } else {
+                log.warn("Hot partitions {} took {} of {} tasks across {} partitions", hot.keySet(),
+                    hot.keySet().stream().mapToLong(window::get).sum(), total, window.size());
+            }
+        }
+        hotPartitions = Map.copyOf(hot);
+        if (hotPartitionShare != null) {
+            hotPartitionShare.register(hot.entrySet().stream()
+                .map(entry -> MultiGauge.Row.of(Tags.of("partition", String.valueOf(entry.getKey())), entry.getValue()))
+                .toList(), true);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        permitWait = Timer.builder("sticky_lb.dispatcher.permit.wait")
+            .description("Time a partition worker waited for its turn on the database")
+            .publishPercentileHistogram()
+            .register(registry);
+        Gauge.builder("sticky_lb.dispatcher.permits.available", this, PartitionScheduler::availableTurns)
+            .description("Inbox reads and retires that could start right now")
+            .register(registry);
+        hotPartitionShare = MultiGauge.builder("sticky_lb.partition.hot")
+            .description("Share of the node's processed tasks taken by each hot partition in the last window")
+            .register(registry);
+    }
+
+    private static final class Waiter {
+        private final int partitionKey;
+        private final Condition ready;
+        private boolean granted;
+
+        private Waiter(int partitionKey, Condition ready) {
+            this.partitionKey = partitionKey;
+            this.ready = ready;
+        }
+    }
+}
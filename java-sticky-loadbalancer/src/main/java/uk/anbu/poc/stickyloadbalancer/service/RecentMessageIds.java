@@ -0,0 +1,61 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import org.springframework.stereotype.Component;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Node-local LRU of JMS message ids known to be in the inbox, so a redelivery is usually recognised without a
+ * database round-trip. A miss says nothing; the {@code message_id} unique constraint stays the final check.
+ */
+@Component
+public class RecentMessageIds {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Boolean> messageIds;
+    private final AtomicLong hits = new AtomicLong();
+
+    public RecentMessageIds(StickyLoadBalancerProperties properties) {
+        int capacity = properties.getDedup().getCacheSize();
+        this.messageIds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public boolean contains(String messageId) {
+        lock.lock();
+        try {
+            if (messageIds.get(messageId) == null) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    public void addAll(Collection<String> written) {
+        lock.lock();
+        try {
+            written.forEach(messageId -> messageIds.put(messageId, Boolean.TRUE));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Redeliveries recognised from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+}
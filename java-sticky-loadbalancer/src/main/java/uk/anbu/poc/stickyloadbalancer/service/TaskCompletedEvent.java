@@ -0,0 +1,9 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+
+/**
+ * Published on the processing thread after a task has been processed, before its page is retired.
+ */
+public record TaskCompletedEvent(TaskInbox task) {
+}
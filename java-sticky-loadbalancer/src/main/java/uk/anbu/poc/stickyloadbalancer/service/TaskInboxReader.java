@@ -2,21 +2,52 @@ package uk.anbu.poc.stickyloadbalancer.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import uk.anbu.poc.stickyloadbalancer.repository.TaskInboxRepository;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.ownership.OwnershipChangedEvent;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
+
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class TaskInboxReader {
 
-    private final TaskInboxRepository taskInboxRepository;
-    private final TaskProcessor taskProcessor;
+    private final PartitionStateRepository partitionStateRepository;
+    private final PartitionDispatcher partitionDispatcher;
+    private final StickyLoadBalancerProperties properties;
 
+    /**
+     * Looks up every partition with pending work in the partition registry. Only needed to find partitions
+     * nobody signalled, e.g. after a restart or when another node has given up a partition.
+     */
+    @Scheduled(fixedDelayString = "${sticky-lb.dispatcher.rescan-interval:30s}")
     public void checkForNewTasks() {
-        var partitioningKeys = taskInboxRepository.findDistinctPartitionKeys();
-        for (int partitionKey : partitioningKeys) {
-            taskProcessor.processTasks(partitionKey);
+        var partitioningKeys = partitionStateRepository.findPartitionKeysWithPendingWork();
+        partitionDispatcher.signal(partitioningKeys);
+    }
+
+    /**
+     * With ownership on, a partition's messages often reach a node that does not own it, which writes them
+     * to the inbox without anyone signalling the owner. The owner picks them up from the registry instead,
+     * the dispatcher ignores the partitions owned elsewhere.
+     */
+    @Scheduled(fixedDelayString = "${sticky-lb.ownership.pending-poll-interval:1s}")
+    public void checkOwnedPartitions() {
+        if (properties.getOwnership().isEnabled()) {
+            checkForNewTasks();
         }
     }
+
+    @EventListener(OwnershipChangedEvent.class)
+    public void onOwnershipChanged() {
+        checkForNewTasks();
+    }
+
+    public void newTasksWritten(List<EnqueuedTasks> written) {
+        written.forEach(partitionDispatcher::handOff);
+    }
 }
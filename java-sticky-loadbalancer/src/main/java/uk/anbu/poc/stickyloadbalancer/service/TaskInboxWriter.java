@@ -1,32 +1,176 @@
 package uk.anbu.poc.stickyloadbalancer.service;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.entity.PartitionState;
 import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
 import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
 import uk.anbu.poc.stickyloadbalancer.repository.TaskInboxRepository;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class TaskInboxWriter {
 
+    private static final String INSERT_INBOX_SQL =
+        "INSERT INTO task_inbox (message_id, partition_key, work_number, created_at_utc) VALUES (?, ?, ?, ?)";
+
     private final TaskInboxRepository messageInboxRepository;
+    private final PartitionStateRepository partitionStateRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final StickyLoadBalancerProperties properties;
+    private final TransactionTemplate transactionTemplate;
+    private final RecentMessageIds recentMessageIds;
+
+    /**
+     * @return the inbox row, or empty if the message was already in the inbox
+     */
+    public Optional<EnqueuedTasks> writeMessage(String messageId, TaskMessage message) {
+        return writeMessages(Map.of(messageId, message)).stream().findFirst();
+    }
+
+    /**
+     * Writes a batch of messages keyed by JMS message id, skipping ids that are already in the inbox, and
+     * inserts the new rows with one JDBC batch. With the dedup cache on, redeliveries this node has seen are
+     * dropped in memory and the rest is inserted straight away; only a batch that hits the unique constraint
+     * is retried with a set-based lookup of the ids already in the inbox. Without it, every batch is looked up
+     * first.
+     *
+     * @return the rows inserted, per partition
+     */
+    public List<EnqueuedTasks> writeMessages(Map<String, TaskMessage> messages) {
+        if (!properties.getDedup().isEnabled()) {
+            return transactionTemplate.execute(status -> insert(messages, true));
+        }
+
+        Map<String, TaskMessage> unseen = new LinkedHashMap<>();
+        messages.forEach((messageId, message) -> {
+            if (!recentMessageIds.contains(messageId)) {
+                unseen.put(messageId, message);
+            }
+        });
+        List<EnqueuedTasks> written;
+        try {
+            written = transactionTemplate.execute(status -> insert(unseen, false));
+        } catch (DuplicateKeyException e) {
+            log.info("Batch of {} messages contains redeliveries, looking them up", unseen.size());
+            written = transactionTemplate.execute(status -> insert(unseen, true));
+        }
+        recentMessageIds.addAll(unseen.keySet());
+        return written;
+    }
+
+    private List<EnqueuedTasks> insert(Map<String, TaskMessage> messages, boolean lookUpExisting) {
+        if (messages.isEmpty()) {
+            return List.of();
+        }
 
-    @Transactional
-    public void writeMessage(String messageId, TaskMessage message) {
-        // Check if message was already processed
-        if (messageInboxRepository.findByMessageId(messageId).isPresent()) {
-            return; // Message already processed
+        Set<String> alreadyInInbox = lookUpExisting
+            ? messageInboxRepository.findExistingMessageIds(messages.keySet())
+            : Set.of();
+        List<TaskInbox> inboxes = messages.entrySet().stream()
+            .filter(entry -> !alreadyInInbox.contains(entry.getKey()))
+            .map(entry -> toInbox(entry.getKey(), entry.getValue()))
+            .toList();
+        if (inboxes.isEmpty()) {
+            return List.of();
         }
 
-        // Create inbox entry
+        Map<Integer, List<TaskInbox>> byPartition = inboxes.stream()
+            .collect(Collectors.groupingBy(TaskInbox::getPartitionKey, LinkedHashMap::new, Collectors.toList()));
+        Map<Integer, Long> previousLastEnqueued = lockPartitions(byPartition.keySet());
+        insertBatch(inboxes);
+        return byPartition.entrySet().stream()
+            .map(entry -> recordEnqueued(entry.getKey(), entry.getValue(), previousLastEnqueued))
+            .toList();
+    }
+
+    /**
+     * With hand-off or the watermark on, locks the registry rows of the partitions before inserting so that
+     * writers of a partition commit one after another, in id order, and each sees the last id enqueued before
+     * its own rows. A partition written for the first time gets its registry row first, which locks it just
+     * the same.
+     *
+     * @return the last enqueued id per partition, empty if nothing was locked
+     */
+    private Map<Integer, Long> lockPartitions(Collection<Integer> partitionKeys) {
+        if (!properties.getDispatcher().isHandOff() && !properties.getProcessor().isWatermark()) {
+            return Map.of();
+        }
+        Map<Integer, Long> lastEnqueued =
+            new HashMap<>(lastEnqueuedIds(partitionStateRepository.lockForEnqueue(partitionKeys)));
+        List<Integer> newPartitions = partitionKeys.stream().filter(key -> !lastEnqueued.containsKey(key)).toList();
+        if (!newPartitions.isEmpty()) {
+            newPartitions.forEach(partitionKey -> partitionStateRepository.recordEnqueued(partitionKey, 0, 0));
+            // another writer may have created the row first, read what it enqueued
+            lastEnqueued.putAll(lastEnqueuedIds(partitionStateRepository.lockForEnqueue(newPartitions)));
+        }
+        return lastEnqueued;
+    }
+
+    private static Map<Integer, Long> lastEnqueuedIds(List<PartitionState> partitions) {
+        return partitions.stream()
+            .collect(Collectors.toMap(PartitionState::getPartitionKey, PartitionState::getLastEnqueuedId));
+    }
+
+    private void insertBatch(List<TaskInbox> inboxes) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(con -> con.prepareStatement(INSERT_INBOX_SQL, new String[] {"id"}),
+            new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    TaskInbox inbox = inboxes.get(i);
+                    ps.setString(1, inbox.getMessageId());
+                    ps.setInt(2, inbox.getPartitionKey());
+                    ps.setInt(3, inbox.getWorkNumber());
+                    ps.setTimestamp(4, Timestamp.valueOf(inbox.getCreatedAt()));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return inboxes.size();
+                }
+            }, keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < inboxes.size(); i++) {
+            inboxes.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+        }
+    }
+
+    private EnqueuedTasks recordEnqueued(int partitionKey, List<TaskInbox> tasks, Map<Integer, Long> previousLastEnqueued) {
+        EnqueuedTasks enqueued = new EnqueuedTasks(partitionKey,
+            previousLastEnqueued.getOrDefault(partitionKey, EnqueuedTasks.UNKNOWN), tasks);
+        partitionStateRepository.recordEnqueued(partitionKey, tasks.size(), enqueued.lastId());
+        return enqueued;
+    }
+
+    private TaskInbox toInbox(String messageId, TaskMessage message) {
         TaskInbox inbox = new TaskInbox();
         inbox.setMessageId(messageId);
         inbox.setPartitionKey(message.getPartitionKey());
         inbox.setWorkNumber(message.getWorkNumber());
-
-        // Save to inbox
-        messageInboxRepository.save(inbox);
+        return inbox;
     }
 }
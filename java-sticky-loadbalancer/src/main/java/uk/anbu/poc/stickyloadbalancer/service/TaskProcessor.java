@@ -2,58 +2,196 @@ package uk.anbu.poc.stickyloadbalancer.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.entity.PartitionState;
 import uk.anbu.poc.stickyloadbalancer.entity.TaskInbox;
+import uk.anbu.poc.stickyloadbalancer.metrics.TaskMetrics;
+import uk.anbu.poc.stickyloadbalancer.repository.PartitionStateRepository;
 import uk.anbu.poc.stickyloadbalancer.repository.TaskInboxRepository;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class TaskProcessor {
+public class TaskProcessor implements DisposableBean {
 
     private final TaskInboxRepository taskInboxRepository;
-    private final AtomicInteger threadCount = new AtomicInteger();
-    private final LockRegistry lockRegistry;
-    @Transactional
-    public void processTasks(int partitionKey) {
-
-        Thread.ofVirtual().name("P-"+ partitionKey + "-" + threadCount.incrementAndGet()).start(() -> {
-            var lock = lockRegistry.obtain("P-"+ partitionKey);
-            if (lock.tryLock()) {
-                try {
-                    List<TaskInbox> tasks = taskInboxRepository.findByPartitionKeyOrderById(partitionKey);
-                    while(!tasks.isEmpty()) {
-                        for (TaskInbox task : tasks) {
-                            log.info("Processing task: MessageId={}, PartitionKey={}, WorkNumber={}",
-                                task.getMessageId(),
-                                task.getPartitionKey(),
-                                task.getWorkNumber());
-
-                            try {
-                                Thread.sleep(100);
-                            } catch (InterruptedException e) {
-                                // ignore.
-                            }
-                            log.info("Done task: MessageId={}, PartitionKey={}, WorkNumber={}",
-                                task.getMessageId(),
-                                task.getPartitionKey(),
-                                task.getWorkNumber());
-                            taskInboxRepository.delete(task);
-                        }
-                        tasks = taskInboxRepository.findByPartitionKeyOrderById(partitionKey);
-                    }
-                } finally {
-                    lock.unlock();
+    private final PartitionStateRepository partitionStateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final StickyLoadBalancerProperties properties;
+    private final TaskMetrics taskMetrics;
+    private final PartitionScheduler partitionScheduler;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ExecutorService pageFetcher = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean stopping;
+
+    /**
+     * Makes every drain return after the task it is processing, with the finished tasks retired.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Every drain waits for its own prefetch, so only a drain that outlived the shutdown timeout can leave one
+     * running here.
+     */
+    @Override
+    public void destroy() {
+        pageFetcher.shutdownNow();
+    }
+
+    /**
+     * Processes everything currently in the inbox for the partition on the calling thread. The caller must
+     * hold the partition lock. With the watermark on, rows at or below the partition's processed-up-to id are
+     * skipped, they are only waiting for the purge.
+     *
+     * @param onPage called on the calling thread after every processed page, a drain keeps going for as long
+     *               as rows keep arriving
+     * @return the id the partition is processed up to, 0 if it has never had anything processed
+     */
+    public long drainPartition(int partitionKey, Runnable onPage) {
+        long watermark = properties.getProcessor().isWatermark()
+            ? partitionScheduler.run(partitionKey, () -> partitionStateRepository.findById(partitionKey))
+                .map(PartitionState::getLastProcessedId).orElse(0L)
+            : 0L;
+        if (properties.getProcessor().isStreaming()) {
+            return streamTasks(partitionKey, watermark, onPage);
+        }
+
+        long lastId = watermark;
+        List<TaskInbox> tasks = findAfter(partitionKey, lastId, Limit.unlimited());
+        while(!tasks.isEmpty()) {
+            for (TaskInbox task : tasks) {
+                if (processPage(partitionKey, List.of(task)) == 0) {
+                    return lastId;
+                }
+                lastId = task.getId();
+                onPage.run();
+            }
+            tasks = findAfter(partitionKey, lastId, Limit.unlimited());
+        }
+        return lastId;
+    }
+
+    /**
+     * Processes rows handed over by the writer that are already committed to the inbox, without reading them
+     * back. The caller must hold the partition lock and pass the rows in id order.
+     *
+     * @return how many of the rows were processed, fewer than all only when stopping
+     */
+    public int processHandedOff(int partitionKey, List<TaskInbox> tasks) {
+        return processPage(partitionKey, tasks);
+    }
+
+    /**
+     * Works through the partition one bounded page at a time, keyed on {@code id > lastId}. The next page is
+     * fetched while the current one is being processed, and each page is retired with a single bulk delete.
+     * Returns once a fetch issued after the last page was processed comes back empty, or when stopping. A drain
+     * that returns early or fails waits for the prefetch in flight first, so no read of the partition outlives
+     * the drain holding its lock.
+     */
+    private long streamTasks(int partitionKey, long watermark, Runnable onPage) {
+        long lastId = watermark;
+        List<TaskInbox> page = fetchPage(partitionKey, lastId);
+        while (!page.isEmpty() && !stopping) {
+            long pageEnd = page.get(page.size() - 1).getId();
+            CompletableFuture<List<TaskInbox>> nextPage =
+                CompletableFuture.supplyAsync(() -> fetchPage(partitionKey, pageEnd), pageFetcher);
+
+            boolean prefetchTaken = false;
+            try {
+                int processed = processPage(partitionKey, page);
+                if (processed < page.size()) {
+                    return processed == 0 ? lastId : page.get(processed - 1).getId();
+                }
+                lastId = pageEnd;
+                onPage.run();
+
+                page = nextPage.join();
+                prefetchTaken = true;
+            } finally {
+                if (!prefetchTaken) {
+                    // the prefetch is not needed, its outcome neither
+                    nextPage.handle((rows, e) -> rows).join();
                 }
-            } else {
-                log.info("Could not obtain lock for partition key: {}", partitionKey);
             }
-        });
+            if (page.isEmpty()) {
+                // the prefetch ran before this page was processed, look again for rows written meanwhile
+                page = fetchPage(partitionKey, lastId);
+            }
+        }
+        return lastId;
+    }
+
+    /**
+     * Processes and retires the rows. When stopping, the rest of the page is left after the current task and
+     * only the finished ones are retired.
+     *
+     * @return the number of rows processed
+     */
+    private int processPage(int partitionKey, List<TaskInbox> tasks) {
+        int processed = 0;
+        while (processed < tasks.size() && !stopping) {
+            process(tasks.get(processed++));
+        }
+        if (processed > 0) {
+            retire(partitionKey, tasks.subList(0, processed));
+        }
+        return processed;
+    }
+
+    /**
+     * Moves the partition registry on past finished rows, deleting them in the same transaction unless the
+     * watermark is on and the purge deletes them later. Like every inbox read, the transaction waits for the
+     * scheduler to give the partition its turn on the database.
+     */
+    private void retire(int partitionKey, List<TaskInbox> tasks) {
+        partitionScheduler.run(partitionKey, () -> transactionTemplate.executeWithoutResult(status -> {
+            if (!properties.getProcessor().isWatermark()) {
+                taskInboxRepository.deleteAllByIdInBatch(tasks.stream().map(TaskInbox::getId).toList());
+            }
+            partitionStateRepository.recordProcessed(partitionKey, tasks.size(), tasks.get(tasks.size() - 1).getId());
+        }));
+    }
+
+    private List<TaskInbox> fetchPage(int partitionKey, long afterId) {
+        return findAfter(partitionKey, afterId, Limit.of(properties.getProcessor().getPageSize()));
+    }
+
+    private List<TaskInbox> findAfter(int partitionKey, long afterId, Limit limit) {
+        return partitionScheduler.run(partitionKey, () ->
+            taskInboxRepository.findByPartitionKeyAndIdGreaterThanOrderById(partitionKey, afterId, limit));
+    }
+
+    private void process(TaskInbox task) {
+        long start = System.nanoTime();
+        log.info("Processing task: MessageId={}, PartitionKey={}, WorkNumber={}",
+            task.getMessageId(),
+            task.getPartitionKey(),
+            task.getWorkNumber());
+
+        try {
+            Thread.sleep(properties.getProcessor().getTaskTime());
+        } catch (InterruptedException e) {
+            // ignore.
+        }
+        log.info("Done task: MessageId={}, PartitionKey={}, WorkNumber={}",
+            task.getMessageId(),
+            task.getPartitionKey(),
+            task.getWorkNumber());
+        taskMetrics.taskDone(task, System.nanoTime() - start);
+        partitionScheduler.taskDone(task.getPartitionKey());
+        eventPublisher.publishEvent(new TaskCompletedEvent(task));
     }
 
 }
@@ -0,0 +1,132 @@
+package uk.anbu.poc.stickyloadbalancer.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.jms.Connection;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Queue;
+import jakarta.jms.Session;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.stereotype.Service;
+import uk.anbu.poc.stickyloadbalancer.admission.AdmissionControl;
+import uk.anbu.poc.stickyloadbalancer.admission.TaskRejectedException;
+import uk.anbu.poc.stickyloadbalancer.codec.TaskMessageConverter;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.model.BatchAck;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+import uk.anbu.poc.stickyloadbalancer.ownership.TaskRouter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Publishes a stream of newline-delimited JSON {@link TaskMessage}s to the task queues. Messages are read one
+ * at a time and sent on a single transacted session from the caching producer factory, which is committed
+ * every {@code commitInterval} messages; the broker only blocks the producer on the commit, not on each send.
+ * Each message goes to the queue the {@link TaskRouter} picks for its partition.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TaskPublisher {
+
+    private static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+
+    private final CachingConnectionFactory producerConnectionFactory;
+    private final TaskMessageConverter taskMessageConverter;
+    private final StickyLoadBalancerProperties properties;
+    private final AdmissionControl admissionControl;
+    private final TaskRouter taskRouter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Sends every message in the body, reporting each batch to {@code onBatch} as soon as it is committed.
+     * Publishing stops at the first unreadable message, a message refused by admission control or a broker
+     * error, after rolling back the open batch and reporting it as failed.
+     *
+     * @return the number of messages committed
+     */
+    public long publish(InputStream ndjson, Consumer<BatchAck> onBatch) throws IOException, JMSException {
+        int commitInterval = properties.getPublisher().getCommitInterval();
+        int batch = 1;
+        long sent = 0;
+        long current = 0;
+        long batchStart = 1;
+
+        try (Connection connection = producerConnectionFactory.createConnection();
+             Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+             MessageProducer producer = session.createProducer(null);
+             MappingIterator<TaskMessage> messages = objectMapper.readerFor(TaskMessage.class).readValues(ndjson)) {
+            Map<String, Queue> queues = new HashMap<>();
+            try {
+                while (true) {
+                    current = sent + 1;
+                    if (!messages.hasNextValue()) {
+                        break;
+                    }
+                    TaskMessage taskMessage = messages.nextValue();
+                    Message message = toMessage(session, taskMessage);
+                    producer.send(queues.computeIfAbsent(taskRouter.destinationOf(taskMessage.getPartitionKey()),
+                        queue -> createQueue(session, queue)), message);
+                    sent = current;
+                    if (sent - batchStart + 1 == commitInterval) {
+                        session.commit();
+                        onBatch.accept(BatchAck.committed(batch++, batchStart, sent));
+                        batchStart = sent + 1;
+                    }
+                }
+                if (sent >= batchStart) {
+                    current = sent;
+                    session.commit();
+                    onBatch.accept(BatchAck.committed(batch, batchStart, sent));
+                }
+                return sent;
+            } catch (JsonProcessingException | IllegalArgumentException | TaskRejectedException
+                     | MessageConversionException | JMSException e) {
+                log.warn("Bulk publish failed at message {}, rolling back batch {}", current, batch, e);
+                session.rollback();
+                onBatch.accept(BatchAck.failed(batch, batchStart, current, describe(e)));
+                return batchStart - 1;
+            }
+        }
+    }
+
+    /**
+     * Converts the task the same way as {@code JmsTemplate} sends do and puts it into the broker message group
+     * of its partition.
+     */
+    private Message toMessage(Session session, TaskMessage taskMessage) throws JMSException {
+        if (taskMessage.getPartitionKey() == null || taskMessage.getWorkNumber() == null) {
+            throw new IllegalArgumentException("partitionKey and workNumber are required");
+        }
+        admissionControl.checkAdmitted(taskMessage.getPartitionKey());
+        Message message = taskMessageConverter.toMessage(taskMessage, session);
+        message.setStringProperty(GROUP_ID_PROPERTY, "P-" + taskMessage.getPartitionKey());
+        return message;
+    }
+
+    private static Queue createQueue(Session session, String queue) {
+        try {
+            return session.createQueue(queue);
+        } catch (JMSException e) {
+            throw JmsUtils.convertJmsAccessException(e);
+        }
+    }
+
+    private static String describe(Exception e) {
+        return e instanceof JsonProcessingException jsonProcessingException
+            ? jsonProcessingException.getOriginalMessage()
+            : e.getMessage();
+    }
+}
@@ -0,0 +1,149 @@
+package uk.anbu.poc.stickyloadbalancer.codec;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.Connection;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.MessageConsumer;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Queue;
+import jakarta.jms.Session;
+import jakarta.jms.TextMessage;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageType;
+import uk.anbu.poc.stickyloadbalancer.config.StickyLoadBalancerProperties;
+import uk.anbu.poc.stickyloadbalancer.model.TaskMessage;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TaskMessageConverterTest {
+
+    private static EmbeddedActiveMQ broker;
+    private static Connection connection;
+    private static Session session;
+
+    private final MappingJackson2MessageConverter jacksonConverter = jacksonConverter();
+    private final List<TaskMessageCodec> codecs =
+        List.of(new JsonTaskMessageCodec(jacksonConverter), new BinaryTaskMessageCodec());
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        broker = new EmbeddedActiveMQ().setConfiguration(new ConfigurationImpl()
+            .setPersistenceEnabled(false)
+            .setSecurityEnabled(false)
+            .addAcceptorConfiguration("in-vm", "vm://0"));
+        broker.start();
+        connection = new ActiveMQConnectionFactory("vm://0").createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    @Test
+    void roundTripsThroughJson() throws JMSException {
+        Message message = converter(JsonTaskMessageCodec.NAME).toMessage(task(7, 42), session);
+
+        assertThat(message).isInstanceOf(TextMessage.class);
+        assertThat(message.getStringProperty(TaskMessageConverter.CODEC_PROPERTY)).isEqualTo("json");
+        assertThat(message.getStringProperty("_type_")).isEqualTo(TaskMessage.class.getName());
+        assertThat(converter(JsonTaskMessageCodec.NAME).fromMessage(message)).isEqualTo(task(7, 42));
+    }
+
+    @Test
+    void roundTripsThroughBinaryV1() throws JMSException {
+        Message message = converter(BinaryTaskMessageCodec.NAME).toMessage(task(7, 42), session);
+
+        assertThat(message).isInstanceOf(BytesMessage.class);
+        assertThat(message.getStringProperty(TaskMessageConverter.CODEC_PROPERTY)).isEqualTo("binary-v1");
+        ((BytesMessage) message).reset();
+        assertThat(((BytesMessage) message).getBodyLength()).isEqualTo(8);
+        assertThat(converter(BinaryTaskMessageCodec.NAME).fromMessage(message)).isEqualTo(task(7, 42));
+    }
+
+    @Test
+    void readsEitherFormatWhicheverItSends() throws JMSException {
+        Message json = converter(JsonTaskMessageCodec.NAME).toMessage(task(1, 2), session);
+        Message binary = converter(BinaryTaskMessageCodec.NAME).toMessage(task(3, 4), session);
+
+        assertThat(converter(BinaryTaskMessageCodec.NAME).fromMessage(json)).isEqualTo(task(1, 2));
+        assertThat(converter(JsonTaskMessageCodec.NAME).fromMessage(binary)).isEqualTo(task(3, 4));
+    }
+
+    @Test
+    void readsMessagesWithoutTheCodecHeaderAsJson() throws JMSException {
+        Message legacy = jacksonConverter.toMessage(task(5, 6), session);
+
+        assertThat(legacy.getStringProperty(TaskMessageConverter.CODEC_PROPERTY)).isNull();
+        assertThat(converter(BinaryTaskMessageCodec.NAME).fromMessage(legacy)).isEqualTo(task(5, 6));
+    }
+
+    @Test
+    void keepsTheCodecHeaderOnTheWire() throws JMSException {
+        Queue queue = session.createTemporaryQueue();
+        try (MessageProducer producer = session.createProducer(queue);
+             MessageConsumer consumer = session.createConsumer(queue)) {
+            TaskMessageConverter converter = converter(BinaryTaskMessageCodec.NAME);
+            producer.send(converter.toMessage(task(8, 9), session));
+
+            Message received = consumer.receive(5_000);
+
+            assertThat(received.getStringProperty(TaskMessageConverter.CODEC_PROPERTY)).isEqualTo("binary-v1");
+            assertThat(converter(JsonTaskMessageCodec.NAME).fromMessage(received)).isEqualTo(task(8, 9));
+        }
+    }
+
+    @Test
+    void rejectsAnUnknownCodec() throws JMSException {
+        Message message = converter(JsonTaskMessageCodec.NAME).toMessage(task(1, 2), session);
+        message.setStringProperty(TaskMessageConverter.CODEC_PROPERTY, "xml");
+
+        assertThatThrownBy(() -> converter(JsonTaskMessageCodec.NAME).fromMessage(message))
+            .isInstanceOf(MessageConversionException.class)
+            .hasMessageContaining("xml");
+    }
+
+    @Test
+    void rejectsABinaryMessageOfTheWrongLength() throws JMSException {
+        BytesMessage message = session.createBytesMessage();
+        message.writeInt(1);
+        message.setStringProperty(TaskMessageConverter.CODEC_PROPERTY, BinaryTaskMessageCodec.NAME);
+
+        assertThatThrownBy(() -> converter(JsonTaskMessageCodec.NAME).fromMessage(message))
+            .isInstanceOf(MessageConversionException.class);
+    }
+
+    private TaskMessageConverter converter(String format) {
+        StickyLoadBalancerProperties properties = new StickyLoadBalancerProperties();
+        properties.getCodec().setFormat(format);
+        return new TaskMessageConverter(codecs, properties);
+    }
+
+    private static MappingJackson2MessageConverter jacksonConverter() {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setTargetType(MessageType.TEXT);
+        converter.setTypeIdPropertyName("_type_");
+        return converter;
+    }
+
+    private static TaskMessage task(int partitionKey, int workNumber) {
+        TaskMessage taskMessage = new TaskMessage();
+        taskMessage.setPartitionKey(partitionKey);
+        taskMessage.setWorkNumber(workNumber);
+        return taskMessage;
+    }
+}
@@ -0,0 +1,81 @@
+package uk.anbu.poc.stickyloadbalancer.ownership;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final int PARTITIONS = 10_000;
+    private static final int VIRTUAL_NODES = 128;
+
+    @Test
+    void emptyRingOwnsNothing() {
+        assertThat(ConsistentHashRing.empty().ownerOf(1)).isEmpty();
+    }
+
+    @Test
+    void sameMembersGiveSameOwnersOnEveryNode() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"), VIRTUAL_NODES);
+        ConsistentHashRing other = new ConsistentHashRing(List.of("c", "a", "b"), VIRTUAL_NODES);
+
+        for (int partitionKey = 0; partitionKey < PARTITIONS; partitionKey++) {
+            assertThat(other.ownerOf(partitionKey)).isEqualTo(ring.ownerOf(partitionKey));
+        }
+    }
+
+    @Test
+    void spreadsPartitionsOverAllMembers() {
+        ConsistentHashRing ring = new ConsistentHashRing(Set.of("a", "b", "c", "d"), VIRTUAL_NODES);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int partitionKey = 0; partitionKey < PARTITIONS; partitionKey++) {
+            owned.merge(ring.ownerOf(partitionKey).orElseThrow(), 1, Integer::sum);
+        }
+
+        assertThat(owned).containsOnlyKeys("a", "b", "c", "d");
+        assertThat(owned.values()).allSatisfy(count -> assertThat(count).isBetween(PARTITIONS / 8, PARTITIONS / 2));
+    }
+
+    @Test
+    void movesOnlyThePartitionsOfAMemberThatLeaves() {
+        ConsistentHashRing before = new ConsistentHashRing(Set.of("a", "b", "c", "d"), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(Set.of("a", "b", "d"), VIRTUAL_NODES);
+
+        Map<String, Integer> takenOver = new HashMap<>();
+        for (int partitionKey = 0; partitionKey < PARTITIONS; partitionKey++) {
+            String oldOwner = before.ownerOf(partitionKey).orElseThrow();
+            String newOwner = after.ownerOf(partitionKey).orElseThrow();
+            if (oldOwner.equals("c")) {
+                takenOver.merge(newOwner, 1, Integer::sum);
+            } else {
+                assertThat(newOwner).as("owner of partition %d", partitionKey).isEqualTo(oldOwner);
+            }
+        }
+
+        assertThat(takenOver).containsOnlyKeys("a", "b", "d");
+    }
+
+    @Test
+    void movesOnlyPartitionsToAMemberThatJoins() {
+        ConsistentHashRing before = new ConsistentHashRing(Set.of("a", "b", "c"), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(Set.of("a", "b", "c", "d"), VIRTUAL_NODES);
+
+        int moved = 0;
+        for (int partitionKey = 0; partitionKey < PARTITIONS; partitionKey++) {
+            String oldOwner = before.ownerOf(partitionKey).orElseThrow();
+            String newOwner = after.ownerOf(partitionKey).orElseThrow();
+            if (!newOwner.equals(oldOwner)) {
+                assertThat(newOwner).as("new owner of partition %d", partitionKey).isEqualTo("d");
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(PARTITIONS / 8, PARTITIONS / 2);
+    }
+}